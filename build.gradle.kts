@@ -52,6 +52,7 @@ tasks {
         relocate("org.lushplugins.lushlib", "org.lushplugins.lushrewards.libraries.lushlib")
         relocate("space.arim.morepaperlib", "org.lushplugins.lushrewards.libraries.morepaperlib")
         relocate("com.mysql", "org.lushplugins.lushrewards.libraries.mysql")
+        relocate("com.zaxxer.hikari", "org.lushplugins.lushrewards.libraries.hikari")
 
         minimize {
             exclude(dependency("com.mysql:.*:.*"))
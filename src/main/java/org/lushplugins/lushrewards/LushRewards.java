@@ -14,11 +14,15 @@ import org.lushplugins.lushrewards.module.playtimetracker.PlaytimeTrackerModule;
 import org.lushplugins.lushrewards.notifications.NotificationHandler;
 import org.lushplugins.lushrewards.rewards.RewardManager;
 import org.lushplugins.lushrewards.utils.placeholder.LocalPlaceholders;
+import org.lushplugins.lushrewards.module.dailyrewards.DailyRewardsModule;
+import org.lushplugins.lushrewards.module.playtimerewards.PlaytimeRewardsModule;
 import org.lushplugins.lushrewards.utils.gson.LocalDateTypeAdapter;
+import org.lushplugins.lushrewards.utils.gson.UserDataDeserializer;
 import org.lushplugins.lushrewards.utils.gson.UserDataExclusionStrategy;
 import org.bukkit.Bukkit;
 import org.lushplugins.lushrewards.config.ConfigManager;
 import org.lushplugins.lushrewards.data.DataManager;
+import org.lushplugins.lushrewards.listener.ActivityListener;
 import org.lushplugins.lushrewards.listener.RewardUserListener;
 import org.bukkit.util.FileUtil;
 import org.lushplugins.lushlib.LushLib;
@@ -47,6 +51,8 @@ public final class LushRewards extends SpigotPlugin {
         GSON = new GsonBuilder()
             .setPrettyPrinting()
             .registerTypeAdapter(LocalDate.class, new LocalDateTypeAdapter())
+            .registerTypeAdapter(DailyRewardsModule.UserData.class, new UserDataDeserializer<>(DailyRewardsModule.UserData::fromJson))
+            .registerTypeAdapter(PlaytimeRewardsModule.UserData.class, new UserDataDeserializer<>(PlaytimeRewardsModule.UserData::fromJson))
             .addSerializationExclusionStrategy(new UserDataExclusionStrategy())
             .create();
     }
@@ -100,6 +106,7 @@ public final class LushRewards extends SpigotPlugin {
         getHooks().forEach(Module::enable);
 
         new RewardUserListener().registerListeners();
+        new ActivityListener().registerListeners();
 
         registerCommand(new RewardsCommand());
 
@@ -22,6 +22,7 @@ public class RewardsCommand extends Command {
         addSubCommand(new MessagesSubCommand());
         addSubCommand(new ReloadSubCommand());
         addSubCommand(new SetPlaytimeSubCommand());
+        addSubCommand(new StorageSubCommand());
         addSubCommand(new UpdateSubCommand());
         addSubCommand(new VersionSubCommand());
     }
@@ -9,6 +9,9 @@ import org.jetbrains.annotations.Nullable;
 import org.lushplugins.lushlib.command.SubCommand;
 import org.lushplugins.lushlib.libraries.chatcolor.ChatColorHandler;
 import org.lushplugins.lushrewards.importer.NDailyRewardsImporter;
+import org.lushplugins.lushrewards.storage.migrator.JsonToMySQL;
+import org.lushplugins.lushrewards.storage.migrator.MySQLToJson;
+import org.lushplugins.lushrewards.storage.migrator.StorageMigrator;
 import org.lushplugins.lushrewards.storage.migrator.Version3DataMigrator;
 
 import java.io.FileNotFoundException;
@@ -36,6 +39,17 @@ public class ImportSubCommand extends SubCommand {
                 case "dailyrewardsplus" -> configImporter = new DailyRewardsPlusImporter();
                 case "ndailyrewards" -> configImporter = new NDailyRewardsImporter();
                 case "version2to3" -> configImporter = new Version3DataMigrator();
+                case "jsontomysql" -> configImporter = new JsonToMySQL();
+                case "mysqltojson" -> configImporter = new MySQLToJson();
+                case "storage" -> {
+                    if (args.length < 3) {
+                        ChatColorHandler.sendMessage(sender, LushRewards.getInstance().getConfigManager().getMessage("incorrect-usage")
+                            .replace("%command-usage%", "/rewards import storage <from> <to>"));
+                        return true;
+                    }
+
+                    configImporter = new StorageMigrator(args[1], args[2]);
+                }
                 default -> configImporter = null;
             }
         } catch (FileNotFoundException e) {
@@ -68,6 +82,12 @@ public class ImportSubCommand extends SubCommand {
 
     @Override
     public @Nullable List<String> tabComplete(@NotNull CommandSender sender, @NotNull org.bukkit.command.Command command, @NotNull String label, @NotNull String[] args, @NotNull String[] fullArgs) {
-        return List.of("DailyRewardsPlus", "NDailyRewards", "Version2to3");
+        if (args.length == 1) {
+            return List.of("DailyRewardsPlus", "NDailyRewards", "Version2to3", "JsonToMySQL", "MySQLToJson", "Storage");
+        } else if ((args.length == 2 || args.length == 3) && args[0].equalsIgnoreCase("storage")) {
+            return List.of("json", "log", "sqlite", "mysql", "postgres");
+        } else {
+            return null;
+        }
     }
 }
\ No newline at end of file
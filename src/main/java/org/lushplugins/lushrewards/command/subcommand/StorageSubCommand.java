@@ -0,0 +1,37 @@
+package org.lushplugins.lushrewards.command.subcommand;
+
+import org.lushplugins.lushrewards.LushRewards;
+import org.lushplugins.lushrewards.data.DataManager;
+import org.bukkit.command.CommandSender;
+import org.jetbrains.annotations.NotNull;
+import org.lushplugins.lushlib.command.SubCommand;
+import org.lushplugins.lushlib.libraries.chatcolor.ChatColorHandler;
+
+import java.util.Map;
+
+public class StorageSubCommand extends SubCommand {
+
+    public StorageSubCommand() {
+        super("storage");
+        addRequiredPermission("lushrewards.storage");
+    }
+
+    @Override
+    public boolean execute(@NotNull CommandSender sender, @NotNull org.bukkit.command.Command command, @NotNull String label, @NotNull String[] args, @NotNull String[] fullArgs) {
+        DataManager dataManager = LushRewards.getInstance().getDataManager();
+        if (dataManager.getStorageManager() == null) {
+            ChatColorHandler.sendMessage(sender, "&#ff6969Storage is not currently enabled");
+            return true;
+        }
+
+        Map<String, String> metrics = dataManager.getMetrics();
+        ChatColorHandler.sendMessage(sender, "&#A5B8FE&lLushRewards &#C4B6FEStorage Metrics");
+        if (metrics.isEmpty()) {
+            ChatColorHandler.sendMessage(sender, "&7No metrics available for this storage type");
+            return true;
+        }
+
+        metrics.forEach((name, value) -> ChatColorHandler.sendMessage(sender, "&7" + name + ": &#f7ba6f" + value));
+        return true;
+    }
+}
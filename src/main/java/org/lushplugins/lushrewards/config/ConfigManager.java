@@ -11,6 +11,7 @@ import org.lushplugins.lushlib.utils.converter.YamlConverter;
 import org.lushplugins.lushrewards.LushRewards;
 import org.lushplugins.lushrewards.module.RewardModule;
 import org.lushplugins.lushrewards.module.RewardModuleTypeManager;
+import org.lushplugins.lushrewards.module.playtimetracker.ActivityType;
 import org.lushplugins.lushrewards.module.playtimetracker.PlaytimeTrackerModule;
 import org.lushplugins.lushrewards.rewards.Reward;
 import org.lushplugins.lushrewards.utils.Debugger;
@@ -20,6 +21,8 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.time.LocalDate;
 import java.util.Collection;
+import java.util.EnumSet;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 
@@ -34,6 +37,8 @@ public class ConfigManager {
     private boolean performanceMode;
 
     private boolean playtimeIgnoreAfk;
+    private int playtimeHeartbeat;
+    private volatile Set<ActivityType> afkActivity = EnumSet.allOf(ActivityType.class);
     private int reminderPeriod;
     private Sound reminderSound;
 
@@ -65,6 +70,19 @@ public class ConfigManager {
         }
 
         playtimeIgnoreAfk = config.getBoolean("playtime-ignore-afk", true);
+        playtimeHeartbeat = Math.min(Math.max(config.getInt("playtime-heartbeat", 5), 1), 60);
+        if (config.isList("afk-activity")) {
+            Set<ActivityType> afkActivity = EnumSet.noneOf(ActivityType.class);
+            for (String activity : config.getStringList("afk-activity")) {
+                StringUtils.getEnum(activity, ActivityType.class).ifPresentOrElse(
+                    afkActivity::add,
+                    () -> plugin.getLogger().warning("'" + activity + "' is not a valid afk activity"));
+            }
+
+            this.afkActivity = afkActivity;
+        } else {
+            this.afkActivity = EnumSet.allOf(ActivityType.class);
+        }
         reminderPeriod = config.getInt("reminder-period", 1800) * 20;
         reminderSound = StringUtils.getEnum(config.getString("reminder-sound", "none"), Sound.class).orElse(null);
 
@@ -112,10 +130,6 @@ public class ConfigManager {
         reloadMessages(config.getConfigurationSection("messages"));
         plugin.getNotificationHandler().reloadNotifications();
 
-        if (plugin.getDataManager() != null) {
-            plugin.getDataManager().reloadRewardUsers(true);
-        }
-
         plugin.getRewardModules().forEach(Module::reload);
 
         if (plugin.getEnabledRewardModules().stream().anyMatch(RewardModule::requiresPlaytimeTracker)) {
@@ -127,6 +141,11 @@ public class ConfigManager {
         } else {
             plugin.unregisterModule(RewardModule.Type.PLAYTIME_TRACKER);
         }
+
+        // Reloaded once the modules have been reloaded so that their data is included
+        if (plugin.getDataManager() != null) {
+            plugin.getDataManager().reloadRewardUsers(true);
+        }
     }
 
 
@@ -199,6 +218,20 @@ public class ConfigManager {
         return playtimeIgnoreAfk;
     }
 
+    /**
+     * @return How often in seconds tracked playtime is counted
+     */
+    public int getPlaytimeHeartbeat() {
+        return playtimeHeartbeat;
+    }
+
+    /**
+     * @return Whether this activity stops a player from being afk
+     */
+    public boolean isAfkActivity(ActivityType activityType) {
+        return afkActivity.contains(activityType);
+    }
+
     public int getReminderPeriod() {
         return reminderPeriod;
     }
@@ -1,42 +1,135 @@
 package org.lushplugins.lushrewards.data;
 
 import org.lushplugins.lushrewards.LushRewards;
+import com.google.gson.JsonObject;
+import org.lushplugins.lushrewards.module.RewardModule;
 import org.lushplugins.lushrewards.module.UserDataModule;
 import org.lushplugins.lushlib.manager.Manager;
 import org.bukkit.Bukkit;
+import org.bukkit.configuration.file.FileConfiguration;
 import org.bukkit.entity.Player;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.lushplugins.lushrewards.module.playtimerewards.PlaytimeRewardsModule;
 import org.lushplugins.lushrewards.storage.StorageManager;
+import org.lushplugins.lushrewards.utils.Debugger;
+import space.arim.morepaperlib.scheduling.ScheduledTask;
 
+import java.time.Duration;
 import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.logging.Level;
 
 public class DataManager extends Manager {
+    private static final long PRELOAD_EXPIRY = 60;
+    private static final int RELOAD_BATCH_SIZE = 200;
     private StorageManager storageManager;
-    private final ConcurrentHashMap<UUID, RewardUser> rewardUsersCache = new ConcurrentHashMap<>();
+    // All cached data for each player, see PlayerSession
+    private final ConcurrentHashMap<UUID, PlayerSession> sessions = new ConcurrentHashMap<>();
+    // Loads that are still in progress, concurrent requests for the same data share the pending load
+    private final ConcurrentHashMap<LoadKey, CompletableFuture<?>> pendingLoads = new ConcurrentHashMap<>();
+    private final LongAdder deduplicatedLoads = new LongAdder();
+    // User data loaded whilst players were logging in that has not yet been moved into the caches
+    private final ConcurrentHashMap<UUID, PreloadedUserData> preloadedUserData = new ConcurrentHashMap<>();
+    private final LongAdder missedPreloads = new LongAdder();
+    private long preloadDeadline;
+    private ScheduledTask saveTask;
 
     @Override
     public void onEnable() {
         storageManager = new StorageManager();
 
+        FileConfiguration config = LushRewards.getInstance().getConfigResource("storage.yml");
+        preloadDeadline = config.getLong("preload.deadline", 2000);
+
+        long saveInterval = config.getLong("save-interval", 30);
+        if (saveInterval > 0) {
+            saveTask = LushRewards.getMorePaperLib().scheduling().asyncScheduler().runAtFixedRate(
+                this::saveChangedUserData,
+                Duration.of(saveInterval, ChronoUnit.SECONDS),
+                Duration.of(saveInterval, ChronoUnit.SECONDS)
+            );
+        }
+
         Bukkit.getOnlinePlayers().forEach(player -> getOrLoadRewardUser(player.getUniqueId()).thenAccept((rewardUser) -> rewardUser.setUsername(player.getName())));
     }
 
     @Override
     public void onDisable() {
+        if (saveTask != null) {
+            saveTask.cancel();
+            saveTask = null;
+        }
+
+        preloadedUserData.clear();
+
         if (storageManager != null) {
-            saveCachedRewardUsers();
-            storageManager.disable();
+            // Written as part of the shutdown flush rather than queued separately so that none can be lost
+            List<UserDataModule.UserData> finalSaves = new ArrayList<>();
+            sessions.values().forEach(session -> {
+                RewardUser rewardUser = session.getRewardUser();
+                if (rewardUser != null) {
+                    finalSaves.add(rewardUser);
+                }
+
+                session.forEachModuleUserData(finalSaves::add);
+            });
+
+            storageManager.shutdown(finalSaves);
             storageManager = null;
         }
     }
 
+    public StorageManager getStorageManager() {
+        return storageManager;
+    }
+
+    public Map<String, String> getMetrics() {
+        Map<String, String> metrics = storageManager.getMetrics();
+        metrics.put("Loads in progress", String.valueOf(pendingLoads.size()));
+        metrics.put("Deduplicated loads", String.valueOf(deduplicatedLoads.sum()));
+        metrics.put("Preloaded users", String.valueOf(preloadedUserData.size()));
+        metrics.put("Missed preload deadlines", String.valueOf(missedPreloads.sum()));
+        return metrics;
+    }
+
+    @Nullable
+    public PlayerSession getSession(@NotNull UUID uuid) {
+        return sessions.get(uuid);
+    }
+
+    @NotNull
+    public PlayerSession getOrCreateSession(@NotNull UUID uuid) {
+        return sessions.computeIfAbsent(uuid, PlayerSession::new);
+    }
+
+    /**
+     * Remove a player's session, this releases all of their cached data at once
+     *
+     * @return The removed session, or null if there was none
+     */
+    @Nullable
+    public PlayerSession removeSession(@NotNull UUID uuid) {
+        return sessions.remove(uuid);
+    }
+
+    public Collection<PlayerSession> getSessions() {
+        return sessions.values();
+    }
+
     @Nullable
     public RewardUser getRewardUser(@NotNull Player player) {
         return getRewardUser(player.getUniqueId());
@@ -44,7 +137,8 @@ public class DataManager extends Manager {
 
     @Nullable
     public RewardUser getRewardUser(@NotNull UUID uuid) {
-        return rewardUsersCache.get(uuid);
+        PlayerSession session = sessions.get(uuid);
+        return session != null ? session.getRewardUser() : null;
     }
 
     public CompletableFuture<RewardUser> getOrLoadRewardUser(UUID uuid) {
@@ -52,8 +146,9 @@ public class DataManager extends Manager {
     }
 
     public CompletableFuture<RewardUser> getOrLoadRewardUser(UUID uuid, boolean cacheUser) {
-        if (rewardUsersCache.containsKey(uuid)) {
-            return CompletableFuture.completedFuture(rewardUsersCache.get(uuid));
+        RewardUser rewardUser = getRewardUser(uuid);
+        if (rewardUser != null) {
+            return CompletableFuture.completedFuture(rewardUser);
         } else {
             return loadRewardUser(uuid, cacheUser);
         }
@@ -69,7 +164,7 @@ public class DataManager extends Manager {
 
         loadUserData(uuid, null, RewardUser.class).thenAccept(rewardUser -> {
             if (rewardUser != null && cacheUser) {
-                rewardUsersCache.put(uuid, rewardUser);
+                getOrCreateSession(uuid).setRewardUser(rewardUser);
             }
 
             future.complete(rewardUser);
@@ -79,27 +174,189 @@ public class DataManager extends Manager {
     }
 
     public void unloadRewardUser(UUID uuid) {
-        rewardUsersCache.remove(uuid);
+        PlayerSession session = sessions.get(uuid);
+        if (session != null) {
+            session.setRewardUser(null);
+        }
     }
 
     /**
-     * Reload all cached RewardUsers
+     * Reload the data of all cached users
+     * <p>
+     * Cached data is saved in a single batch, then users are loaded in batches and their new data replaces
+     * the cached data as each batch loads, so cached data is never missing whilst reloading. Cached data that
+     * changes whilst reloading is newer than the loaded data and is kept
      *
-     * @param save Whether cached RewardUsers should be saved before reloading
+     * @param save Whether cached data should be saved before reloading
      */
-    public void reloadRewardUsers(boolean save) {
-        rewardUsersCache.forEach((uuid, rewardUser) -> {
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public CompletableFuture<Void> reloadRewardUsers(boolean save) {
+        List<UUID> uuids = new ArrayList<>();
+        Map<UUID, Map<String, CachedVersion>> cachedVersions = new HashMap<>();
+        List<CompletableFuture<Boolean>> saves = new ArrayList<>();
+        sessions.forEach((uuid, session) -> {
+            RewardUser rewardUser = session.getRewardUser();
+            if (rewardUser == null) {
+                return;
+            }
+
+            uuids.add(uuid);
+
+            // Data is left cached when its module is disabled, it is no longer needed if the module was not enabled again
+            session.forEachModuleUserData(userData -> {
+                if (!isUserDataModuleEnabled(userData.getModuleId())) {
+                    session.setModuleUserData(PlayerSession.getModuleSlot(userData.getModuleId()), null);
+                }
+            });
+
+            // Recorded before saving so that data which changes after this point is never replaced
+            Map<String, CachedVersion> versions = new HashMap<>();
+            versions.put(null, new CachedVersion(rewardUser, rewardUser.getVersion()));
+            session.forEachModuleUserData(userData -> versions.put(userData.getModuleId(), new CachedVersion(userData, userData.getVersion())));
+            cachedVersions.put(uuid, versions);
+
             if (save) {
-                saveRewardUser(rewardUser);
+                saves.add(forceSave(rewardUser));
+                session.forEachModuleUserData(userData -> saves.add(forceSave(userData)));
             }
+        });
 
-            unloadRewardUser(uuid);
-            loadRewardUser(uuid);
+        if (uuids.isEmpty()) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        if (save) {
+            storageManager.flush();
+        }
+
+        Map<String, Class<? extends UserDataModule.UserData>> dataClasses = new LinkedHashMap<>();
+        dataClasses.put(null, RewardUser.class);
+        for (RewardModule module : LushRewards.getInstance().getEnabledRewardModules()) {
+            if (module instanceof UserDataModule<?> userDataModule) {
+                dataClasses.put(module.getId(), userDataModule.getUserDataClass());
+            }
+        }
+
+        long start = System.currentTimeMillis();
+        return CompletableFuture.allOf(saves.toArray(CompletableFuture[]::new)).thenCompose(ignored -> {
+            List<CompletableFuture<?>> batches = new ArrayList<>();
+            for (int i = 0; i < uuids.size(); i += RELOAD_BATCH_SIZE) {
+                List<UUID> batch = uuids.subList(i, Math.min(i + RELOAD_BATCH_SIZE, uuids.size()));
+                batches.add(storageManager.loadUserData(batch, new ArrayList<>(dataClasses.keySet()))
+                    .orTimeout(30, TimeUnit.SECONDS)
+                    .thenCompose(jsonMaps -> {
+                        List<CompletableFuture<?>> futures = new ArrayList<>();
+                        jsonMaps.forEach((uuid, jsonMap) -> dataClasses.forEach((moduleId, dataClass) -> {
+                            CompletableFuture<UserDataModule.UserData> future = new CompletableFuture<>();
+                            readUserData(uuid, moduleId, (Class) dataClass, jsonMap.get(moduleId), future);
+                            futures.add(future.thenAccept(userData -> replaceCachedUserData(uuid, moduleId, userData, cachedVersions.get(uuid).get(moduleId))));
+                        }));
+
+                        // Modules are cached by this point so this only runs each module's post load checks
+                        return CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new)).thenRun(() -> batch.forEach(this::loadModulesUserData));
+                    }));
+            }
+
+            return CompletableFuture.allOf(batches.toArray(CompletableFuture[]::new));
+        }).whenComplete((ignored, exception) -> {
+            if (exception != null) {
+                LushRewards.getInstance().log(Level.WARNING, "Caught error when reloading user data:", exception);
+            } else {
+                Debugger.sendDebugMessage("Reloaded data for " + uuids.size() + " users (took " + (System.currentTimeMillis() - start) + "ms)", Debugger.DebugMode.ALL);
+            }
         });
     }
 
+    /**
+     * Replace a user's cached data with newly loaded data, the data is only replaced if the same data is still cached
+     * and it has not changed since the load started. Data that has changed is newer and is kept
+     *
+     * @param cachedVersion The data that was cached when the load started, or null if none was cached
+     */
+    private void replaceCachedUserData(UUID uuid, @Nullable String moduleId, @Nullable UserDataModule.UserData userData, @Nullable CachedVersion cachedVersion) {
+        PlayerSession session = sessions.get(uuid);
+        if (session == null || userData == null) {
+            return;
+        }
+
+        if (moduleId == null) {
+            RewardUser rewardUser = session.getRewardUser();
+            if (isUnchanged(rewardUser, cachedVersion)) {
+                session.setRewardUser((RewardUser) userData);
+            }
+
+            return;
+        }
+
+        LushRewards.getInstance().getModule(moduleId).ifPresent(module -> {
+            if (module instanceof UserDataModule<?> userDataModule) {
+                UserDataModule.UserData cachedUserData = userDataModule.getUserData(uuid);
+                if (cachedUserData == null) {
+                    if (cachedVersion == null) {
+                        userDataModule.cacheUserData(uuid, userData);
+                    }
+
+                    return;
+                }
+
+                // Changes to snapshot data are made whilst holding its lock, so it cannot change whilst it is replaced
+                synchronized (cachedUserData) {
+                    if (isUnchanged(cachedUserData, cachedVersion)) {
+                        userDataModule.cacheUserData(uuid, userData);
+                    }
+                }
+            }
+        });
+    }
+
+    private static boolean isUserDataModuleEnabled(String moduleId) {
+        return LushRewards.getInstance().getModule(moduleId)
+            .filter(module -> module.isEnabled() && module instanceof UserDataModule<?>)
+            .isPresent();
+    }
+
+    /**
+     * @return Whether the cached data is the same data at the same version as when the load started
+     */
+    private static boolean isUnchanged(@Nullable UserDataModule.UserData cachedUserData, @Nullable CachedVersion cachedVersion) {
+        if (cachedUserData == null || cachedVersion == null) {
+            return cachedUserData == null && cachedVersion == null;
+        }
+
+        return cachedUserData == cachedVersion.userData()
+            && cachedUserData.getVersion() == cachedVersion.version()
+            && !cachedUserData.isDirty();
+    }
+
     public void saveCachedRewardUsers() {
-        rewardUsersCache.values().forEach(this::saveRewardUser);
+        sessions.values().forEach(session -> {
+            RewardUser rewardUser = session.getRewardUser();
+            if (rewardUser != null) {
+                saveRewardUser(rewardUser);
+            }
+        });
+    }
+
+    /**
+     * Save the cached RewardUsers and module data that have changed since they were last saved
+     */
+    public void saveChangedUserData() {
+        if (storageManager == null) {
+            return;
+        }
+
+        sessions.values().forEach(session -> {
+            RewardUser rewardUser = session.getRewardUser();
+            if (rewardUser != null && rewardUser.isDirty()) {
+                saveUserData(rewardUser);
+            }
+
+            session.forEachModuleUserData(userData -> {
+                if (userData.isDirty()) {
+                    saveUserData(userData);
+                }
+            });
+        });
     }
 
     @SuppressWarnings("UnusedReturnValue")
@@ -147,7 +404,16 @@ public class DataManager extends Manager {
 
     public <T extends UserDataModule.UserData> CompletableFuture<T> loadUserData(@NotNull UUID uuid, String moduleId, Class<T> dataClass) {
         CompletableFuture<T> future = new CompletableFuture<>();
+        CompletableFuture<T> pendingLoad = registerPendingLoad(uuid, moduleId, future);
+        if (pendingLoad != null) {
+            return pendingLoad;
+        }
+
+        startLoad(uuid, moduleId, dataClass, future);
+        return future;
+    }
 
+    private <T extends UserDataModule.UserData> void startLoad(@NotNull UUID uuid, String moduleId, Class<T> dataClass, CompletableFuture<T> future) {
         storageManager.loadModuleUserData(uuid, moduleId)
             .orTimeout(15, TimeUnit.SECONDS)
             .whenComplete((json, exception) -> {
@@ -157,72 +423,270 @@ public class DataManager extends Manager {
                     return;
                 }
 
-                if (json == null) {
-                    LushRewards.getInstance().getLogger().info("No storage data found for '" + uuid + "' for module '" + (moduleId != null ? moduleId : "main") + "', creating default data!");
-
-                    if (moduleId != null) {
-                        UserDataModule<?> module = (UserDataModule<?>) LushRewards.getInstance().getModule(moduleId).orElse(null);
-                        if (module != null) {
-                            T userData = dataClass.cast(module.getDefaultData(uuid));
-                            saveUserData(userData).thenAccept((ignored) -> future.complete(userData));
-                        } else {
-                            future.complete(null);
-                        }
-                    } else if (dataClass.isAssignableFrom(RewardUser.class)) {
-                        T userData = dataClass.cast(new RewardUser(uuid, null, 0));
-                        saveUserData(userData).thenAccept((ignored) -> future.complete(userData));
-                    } else {
-                        future.complete(null);
+                readUserData(uuid, moduleId, dataClass, json, future);
+            });
+    }
+
+    /**
+     * Loads the RewardUser and the user data of all enabled modules in a single storage request
+     *
+     * @return The user's RewardUser
+     */
+    public CompletableFuture<RewardUser> loadAllUserData(@NotNull UUID uuid) {
+        PreloadedUserData preloaded = preloadedUserData.remove(uuid);
+        if (preloaded != null) {
+            preloaded.moveToCaches(uuid);
+        }
+
+        Map<String, CompletableFuture<? extends UserDataModule.UserData>> loads = startBulkLoad(uuid);
+
+        CompletableFuture<RewardUser> rewardUserFuture = null;
+        List<CompletableFuture<?>> moduleFutures = new ArrayList<>();
+        for (Map.Entry<String, CompletableFuture<? extends UserDataModule.UserData>> entry : loads.entrySet()) {
+            String moduleId = entry.getKey();
+            if (moduleId == null) {
+                rewardUserFuture = entry.getValue().thenApply(userData -> {
+                    RewardUser rewardUser = (RewardUser) userData;
+                    if (rewardUser != null) {
+                        getOrCreateSession(uuid).setRewardUser(rewardUser);
                     }
 
-                    return;
-                }
+                    return rewardUser;
+                });
+            } else {
+                moduleFutures.add(entry.getValue().thenAccept(userData -> {
+                    if (userData != null) {
+                        LushRewards.getInstance().getModule(moduleId).ifPresent(module -> ((UserDataModule<?>) module).cacheUserData(uuid, userData));
+                    }
+                }));
+            }
+        }
+
+        // Modules are cached by this point so this only runs each module's post load checks
+        CompletableFuture.allOf(moduleFutures.toArray(CompletableFuture[]::new)).thenRun(() -> loadModulesUserData(uuid));
+
+        return rewardUserFuture != null ? rewardUserFuture : getOrLoadRewardUser(uuid);
+    }
+
+    /**
+     * Start loading a user's data before they join, the loaded data is moved into the caches by {@link #loadAllUserData(UUID)}
+     * <p>
+     * This blocks until the data has loaded or the preload deadline has passed, data that misses the deadline continues
+     * loading in the background and is picked up when the player joins
+     *
+     * @return Whether all data was loaded before the deadline
+     */
+    public boolean preloadUserData(@NotNull UUID uuid) {
+        if (storageManager == null || preloadDeadline <= 0) {
+            return false;
+        }
 
-                try {
-                    json.addProperty("uuid", uuid.toString());
-                    json.addProperty("moduleId", moduleId);
+        PreloadedUserData preloaded = new PreloadedUserData();
+        preloadedUserData.put(uuid, preloaded);
+
+        List<CompletableFuture<?>> futures = new ArrayList<>();
+        startBulkLoad(uuid).forEach((moduleId, future) -> futures.add(future.thenAccept(userData -> preloaded.put(moduleId, userData))));
+
+        // Preloaded data is discarded if the player never joins
+        LushRewards.getMorePaperLib().scheduling().asyncScheduler().runDelayed(() -> {
+            if (preloadedUserData.remove(uuid, preloaded) && Bukkit.getPlayer(uuid) == null) {
+                releaseUserData(uuid);
+            }
+        }, Duration.of(PRELOAD_EXPIRY, ChronoUnit.SECONDS));
+
+        try {
+            CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new)).get(preloadDeadline, TimeUnit.MILLISECONDS);
+            return true;
+        } catch (TimeoutException e) {
+            missedPreloads.increment();
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException e) {
+            LushRewards.getInstance().log(Level.WARNING, "Caught error when preloading user data:", e);
+            return false;
+        }
+    }
+
+    /**
+     * Discard any data preloaded for a user, this data may be older than data saved since it was loaded
+     */
+    public void discardPreloadedUserData(@NotNull UUID uuid) {
+        preloadedUserData.remove(uuid);
+    }
 
-                    T userData = LushRewards.getInstance().getGson().fromJson(json, dataClass);
-                    if (userData == null) {
-                        future.complete(null);
+    /**
+     * Registers and starts loading the RewardUser and all enabled modules' user data in a single storage request,
+     * data that is already cached or is already being loaded is left out
+     *
+     * @return The loads that were started, keyed by module id (A null module id refers to the RewardUser)
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private Map<String, CompletableFuture<? extends UserDataModule.UserData>> startBulkLoad(@NotNull UUID uuid) {
+        Map<String, Class<? extends UserDataModule.UserData>> dataClasses = new LinkedHashMap<>();
+        Map<String, CompletableFuture<? extends UserDataModule.UserData>> loads = new LinkedHashMap<>();
+
+        if (getRewardUser(uuid) == null) {
+            CompletableFuture<RewardUser> future = new CompletableFuture<>();
+            if (registerPendingLoad(uuid, null, future) == null) {
+                dataClasses.put(null, RewardUser.class);
+                loads.put(null, future);
+            }
+        }
+
+        for (RewardModule module : LushRewards.getInstance().getEnabledRewardModules()) {
+            if (module instanceof UserDataModule<?> userDataModule && userDataModule.getUserData(uuid) == null) {
+                CompletableFuture<UserDataModule.UserData> future = new CompletableFuture<>();
+                if (registerPendingLoad(uuid, module.getId(), future) == null) {
+                    dataClasses.put(module.getId(), userDataModule.getUserDataClass());
+                    loads.put(module.getId(), future);
+                }
+            }
+        }
+
+        if (!loads.isEmpty()) {
+            storageManager.loadUserData(uuid, new ArrayList<>(loads.keySet()))
+                .orTimeout(15, TimeUnit.SECONDS)
+                .whenComplete((jsonMap, exception) -> {
+                    if (exception != null) {
+                        LushRewards.getInstance().log(Level.WARNING, "Caught error when loading all user data, loading individually instead:", exception);
+                        loads.forEach((moduleId, future) -> startLoad(uuid, moduleId, (Class) dataClasses.get(moduleId), (CompletableFuture) future));
                         return;
                     }
 
-                    if (userData instanceof PlaytimeRewardsModule.UserData playtimeUserData) {
-                        PlaytimeRewardsModule module = (PlaytimeRewardsModule) LushRewards.getInstance().getModule(moduleId).orElse(null);
-                        if (module != null) {
-                            int resetPlaytimeAt = module.getResetPlaytimeAt();
-                            if (resetPlaytimeAt > 0 && !playtimeUserData.getStartDate().isAfter(LocalDate.now().minusDays(resetPlaytimeAt))) {
-                                playtimeUserData.setStartDate(LocalDate.now());
-                                playtimeUserData.setPreviousDayEndPlaytime(playtimeUserData.getLastCollectedPlaytime());
-                                saveUserData(userData);
-                            }
-                        }
-                    }
+                    loads.forEach((moduleId, future) -> readUserData(uuid, moduleId, (Class) dataClasses.get(moduleId), jsonMap.get(moduleId), (CompletableFuture) future));
+                });
+        }
 
+        return loads;
+    }
+
+    /**
+     * Register a load as in progress so that concurrent requests for the same data can share it
+     *
+     * @return The load that is already in progress, or null if this load was registered
+     */
+    @SuppressWarnings("unchecked")
+    private <T extends UserDataModule.UserData> CompletableFuture<T> registerPendingLoad(UUID uuid, @Nullable String moduleId, CompletableFuture<T> future) {
+        LoadKey key = new LoadKey(uuid, moduleId);
+        CompletableFuture<?> pendingLoad = pendingLoads.putIfAbsent(key, future);
+        if (pendingLoad != null) {
+            deduplicatedLoads.increment();
+            return (CompletableFuture<T>) pendingLoad;
+        }
+
+        future.whenComplete((ignored, exception) -> pendingLoads.remove(key, future));
+        return null;
+    }
+
+    private <T extends UserDataModule.UserData> void readUserData(@NotNull UUID uuid, String moduleId, Class<T> dataClass, @Nullable JsonObject json, CompletableFuture<T> future) {
+        if (json == null) {
+            LushRewards.getInstance().getLogger().info("No storage data found for '" + uuid + "' for module '" + (moduleId != null ? moduleId : "main") + "', creating default data!");
+
+            // The default data is used straight away, its save is queued with the user's other saves
+
+            if (moduleId != null) {
+                UserDataModule<?> module = (UserDataModule<?>) LushRewards.getInstance().getModule(moduleId).orElse(null);
+                if (module != null) {
+                    T userData = dataClass.cast(module.getDefaultData(uuid));
+                    userData.markDirty();
+                    saveUserData(userData);
                     future.complete(userData);
-                } catch (Throwable e) {
-                    LushRewards.getInstance().log(Level.WARNING, "Caught error when parsing user data:", e);
+                } else {
                     future.complete(null);
                 }
-            });
+            } else if (dataClass.isAssignableFrom(RewardUser.class)) {
+                T userData = dataClass.cast(new RewardUser(uuid, null, 0));
+                userData.markDirty();
+                saveUserData(userData);
+                future.complete(userData);
+            } else {
+                future.complete(null);
+            }
 
-        return future;
+            return;
+        }
+
+        try {
+            json.addProperty("uuid", uuid.toString());
+            json.addProperty("moduleId", moduleId);
+
+            T userData = LushRewards.getInstance().getGson().fromJson(json, dataClass);
+            if (userData == null) {
+                future.complete(null);
+                return;
+            }
+
+            if (userData instanceof PlaytimeRewardsModule.UserData playtimeUserData) {
+                PlaytimeRewardsModule module = (PlaytimeRewardsModule) LushRewards.getInstance().getModule(moduleId).orElse(null);
+                if (module != null) {
+                    int resetPlaytimeAt = module.getResetPlaytimeAt();
+                    if (resetPlaytimeAt > 0 && !playtimeUserData.getStartDate().isAfter(LocalDate.now().minusDays(resetPlaytimeAt))) {
+                        playtimeUserData.resetStartDate();
+                        saveUserData(userData);
+                    }
+                }
+            }
+
+            future.complete(userData);
+        } catch (Throwable e) {
+            LushRewards.getInstance().log(Level.WARNING, "Caught error when parsing user data:", e);
+            future.complete(null);
+        }
     }
 
     public CompletableFuture<Boolean> saveUserData(UserDataModule.UserData userData) {
-        return CompletableFuture.supplyAsync(() -> storageManager.saveModuleUserData(userData))
+        return saveUserData(userData, false);
+    }
+
+    /**
+     * Data without any changes since it was last saved is not written, see {@link #forceSave(UserDataModule.UserData, boolean)}
+     *
+     * @param flush Whether the save should be written straight away instead of waiting for the next storage flush
+     */
+    public CompletableFuture<Boolean> saveUserData(UserDataModule.UserData userData, boolean flush) {
+        if (!userData.isDirty()) {
+            return CompletableFuture.completedFuture(true);
+        }
+
+        return forceSave(userData, flush);
+    }
+
+    public CompletableFuture<Boolean> forceSave(UserDataModule.UserData userData) {
+        return forceSave(userData, false);
+    }
+
+    /**
+     * Data is written even if it has not been marked as changed, this is used for explicit saves as modules from
+     * other plugins may not mark their data as changed
+     *
+     * @param flush Whether the save should be written straight away instead of waiting for the next storage flush
+     */
+    public CompletableFuture<Boolean> forceSave(UserDataModule.UserData userData, boolean flush) {
+        int version = userData.getVersion();
+
+        // Submitted directly so that saves for the same user keep their order in the storage queue
+        return storageManager.saveModuleUserData(userData, flush)
             .orTimeout(30, TimeUnit.SECONDS)
-            .handle((storageData, exception) -> {
+            .handle((ignored, exception) -> {
                 if (exception != null) {
                     LushRewards.getInstance().log(Level.WARNING, "Caught error when saving data:", exception);
                     return false;
                 }
 
-                return storageData != null;
+                userData.markSaved(version);
+                return true;
             });
     }
 
+    /**
+     * Write any queued saves for a user and release any storage caches held for them
+     */
+    public CompletableFuture<Void> releaseUserData(UUID uuid) {
+        return storageManager.unloadUser(uuid);
+    }
+
     public void loadModulesUserData(UUID uuid) {
         LushRewards.getInstance().getEnabledRewardModules().forEach(module -> {
             if (module instanceof UserDataModule<?> userDataModule) {
@@ -258,9 +722,52 @@ public class DataManager extends Manager {
     public CompletableFuture<Boolean> saveModuleUserData(UUID uuid, UserDataModule<?> userDataModule) {
         UserDataModule.UserData userData = userDataModule.getUserData(uuid);
         if (userData != null) {
-            return saveUserData(userData);
+            return forceSave(userData);
         } else {
             return CompletableFuture.completedFuture(true);
         }
     }
+
+    private record LoadKey(UUID uuid, @Nullable String moduleId) {}
+
+    /**
+     * @param userData The data that was cached
+     * @param version The version of the data when it was recorded
+     */
+    private record CachedVersion(UserDataModule.UserData userData, int version) {}
+
+    /**
+     * User data that was loaded before the player joined
+     */
+    private class PreloadedUserData {
+        private volatile RewardUser rewardUser;
+        private final ConcurrentHashMap<String, UserDataModule.UserData> moduleUserData = new ConcurrentHashMap<>();
+
+        private void put(@Nullable String moduleId, @Nullable UserDataModule.UserData userData) {
+            if (userData == null) {
+                return;
+            }
+
+            if (moduleId == null) {
+                rewardUser = (RewardUser) userData;
+            } else {
+                moduleUserData.put(moduleId, userData);
+            }
+        }
+
+        /**
+         * Data that has been cached since it was preloaded is newer and is kept
+         */
+        private void moveToCaches(UUID uuid) {
+            if (rewardUser != null && getRewardUser(uuid) == null) {
+                getOrCreateSession(uuid).setRewardUser(rewardUser);
+            }
+
+            moduleUserData.forEach((moduleId, userData) -> LushRewards.getInstance().getModule(moduleId).ifPresent(module -> {
+                if (module instanceof UserDataModule<?> userDataModule && userDataModule.getUserData(uuid) == null) {
+                    userDataModule.cacheUserData(uuid, userData);
+                }
+            }));
+        }
+    }
 }
@@ -0,0 +1,104 @@
+package org.lushplugins.lushrewards.data;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.lushplugins.lushrewards.module.UserDataModule;
+import org.lushplugins.lushrewards.module.playtimetracker.PlaytimeTracker;
+
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+/**
+ * Everything cached for a player, so that all of their data can be found with a single lookup
+ * <p>
+ * Module data is kept in a slot array indexed by each module's slot, see {@link #getModuleSlot(String)}
+ */
+public class PlayerSession {
+    // Slots are never reused so that a reloaded module keeps the same slot
+    private static final ConcurrentHashMap<String, Integer> MODULE_SLOTS = new ConcurrentHashMap<>();
+    private static final AtomicInteger NEXT_MODULE_SLOT = new AtomicInteger();
+
+    private final UUID uuid;
+    private volatile RewardUser rewardUser;
+    private volatile AtomicReferenceArray<UserDataModule.UserData> moduleUserData;
+    private volatile PlaytimeTracker playtimeTracker;
+
+    public PlayerSession(@NotNull UUID uuid) {
+        this.uuid = uuid;
+        this.moduleUserData = new AtomicReferenceArray<>(Math.max(NEXT_MODULE_SLOT.get(), 4));
+    }
+
+    public @NotNull UUID getUniqueId() {
+        return uuid;
+    }
+
+    public @Nullable RewardUser getRewardUser() {
+        return rewardUser;
+    }
+
+    public void setRewardUser(@Nullable RewardUser rewardUser) {
+        this.rewardUser = rewardUser;
+    }
+
+    public @Nullable UserDataModule.UserData getModuleUserData(int slot) {
+        AtomicReferenceArray<UserDataModule.UserData> moduleUserData = this.moduleUserData;
+        return slot < moduleUserData.length() ? moduleUserData.get(slot) : null;
+    }
+
+    /**
+     * @return The module data in this slot, or null if there is none or it is not of this type
+     */
+    public <T extends UserDataModule.UserData> @Nullable T getModuleUserData(int slot, Class<T> dataClass) {
+        UserDataModule.UserData userData = getModuleUserData(slot);
+        return dataClass.isInstance(userData) ? dataClass.cast(userData) : null;
+    }
+
+    /**
+     * Writes are synchronised so that none are lost whilst the slot array is being grown
+     */
+    public synchronized void setModuleUserData(int slot, @Nullable UserDataModule.UserData userData) {
+        AtomicReferenceArray<UserDataModule.UserData> moduleUserData = this.moduleUserData;
+        if (slot >= moduleUserData.length()) {
+            if (userData == null) {
+                return;
+            }
+
+            AtomicReferenceArray<UserDataModule.UserData> grown = new AtomicReferenceArray<>(Math.max(slot + 1, moduleUserData.length() * 2));
+            for (int i = 0; i < moduleUserData.length(); i++) {
+                grown.set(i, moduleUserData.get(i));
+            }
+
+            this.moduleUserData = moduleUserData = grown;
+        }
+
+        moduleUserData.set(slot, userData);
+    }
+
+    public void forEachModuleUserData(Consumer<UserDataModule.UserData> consumer) {
+        AtomicReferenceArray<UserDataModule.UserData> moduleUserData = this.moduleUserData;
+        for (int i = 0; i < moduleUserData.length(); i++) {
+            UserDataModule.UserData userData = moduleUserData.get(i);
+            if (userData != null) {
+                consumer.accept(userData);
+            }
+        }
+    }
+
+    public @Nullable PlaytimeTracker getPlaytimeTracker() {
+        return playtimeTracker;
+    }
+
+    public void setPlaytimeTracker(@Nullable PlaytimeTracker playtimeTracker) {
+        this.playtimeTracker = playtimeTracker;
+    }
+
+    /**
+     * @return The slot that this module's data is kept in within each session
+     */
+    public static int getModuleSlot(@NotNull String moduleId) {
+        return MODULE_SLOTS.computeIfAbsent(moduleId, (ignored) -> NEXT_MODULE_SLOT.getAndIncrement());
+    }
+}
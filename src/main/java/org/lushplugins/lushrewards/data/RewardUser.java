@@ -3,8 +3,12 @@ package org.lushplugins.lushrewards.data;
 import org.lushplugins.lushrewards.LushRewards;
 import org.lushplugins.lushrewards.api.event.RewardUserPlaytimeChangeEvent;
 import org.lushplugins.lushrewards.module.UserDataModule;
+import org.lushplugins.lushrewards.storage.PlaytimeCounterStore;
+import org.lushplugins.lushrewards.storage.StorageManager;
 import org.jetbrains.annotations.NotNull;
 
+import java.time.LocalDate;
+import java.util.Objects;
 import java.util.UUID;
 
 public class RewardUser extends UserDataModule.UserData {
@@ -22,8 +26,10 @@ public class RewardUser extends UserDataModule.UserData {
     }
 
     public void setUsername(String username) {
-        this.username = username;
-        LushRewards.getInstance().getDataManager().saveRewardUser(this);
+        if (!Objects.equals(this.username, username)) {
+            this.username = username;
+            markDirty();
+        }
     }
 
     public int getMinutesPlayed() {
@@ -33,7 +39,21 @@ public class RewardUser extends UserDataModule.UserData {
     public void setMinutesPlayed(int minutesPlayed) {
         LushRewards.getMorePaperLib().scheduling().globalRegionalScheduler().run(() -> LushRewards.getInstance().callEvent(new RewardUserPlaytimeChangeEvent(this, this.minutesPlayed, minutesPlayed)));
 
+        // Always marked as changed since tracked minutes may not have been saved yet
+        trackMinutesPlayed(minutesPlayed);
+        markDirty();
+    }
+
+    /**
+     * Update the minutes played in memory and in the playtime counters without marking this user to be saved
+     */
+    public void trackMinutesPlayed(int minutesPlayed) {
         this.minutesPlayed = minutesPlayed;
-        LushRewards.getInstance().getDataManager().saveRewardUser(this);
+
+        StorageManager storageManager = LushRewards.getInstance().getDataManager().getStorageManager();
+        PlaytimeCounterStore playtimeCounters = storageManager != null ? storageManager.getPlaytimeCounters() : null;
+        if (playtimeCounters != null) {
+            playtimeCounters.setMinutesPlayed(getUniqueId(), minutesPlayed, (int) LocalDate.now().toEpochDay());
+        }
     }
 }
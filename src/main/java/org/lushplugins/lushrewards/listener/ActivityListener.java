@@ -0,0 +1,68 @@
+package org.lushplugins.lushrewards.listener;
+
+import org.lushplugins.lushrewards.LushRewards;
+import org.lushplugins.lushrewards.config.ConfigManager;
+import org.lushplugins.lushrewards.data.DataManager;
+import org.lushplugins.lushrewards.data.PlayerSession;
+import org.lushplugins.lushrewards.module.playtimetracker.ActivityType;
+import org.lushplugins.lushrewards.module.playtimetracker.PlaytimeTracker;
+import org.lushplugins.lushlib.listener.EventListener;
+import org.bukkit.Location;
+import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.player.AsyncPlayerChatEvent;
+import org.bukkit.event.player.PlayerCommandPreprocessEvent;
+import org.bukkit.event.player.PlayerInteractEvent;
+import org.bukkit.event.player.PlayerMoveEvent;
+
+/**
+ * Records player activity on their playtime tracker so that afk players can be found without polling
+ */
+public class ActivityListener implements EventListener {
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onPlayerMove(PlayerMoveEvent event) {
+        Location from = event.getFrom();
+        Location to = event.getTo();
+        if (to == null) {
+            return;
+        }
+
+        if (from.getBlockX() != to.getBlockX() || from.getBlockY() != to.getBlockY() || from.getBlockZ() != to.getBlockZ()) {
+            recordActivity(event.getPlayer(), ActivityType.MOVE);
+        } else if (from.getYaw() != to.getYaw() || from.getPitch() != to.getPitch()) {
+            recordActivity(event.getPlayer(), ActivityType.LOOK);
+        }
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onPlayerChat(AsyncPlayerChatEvent event) {
+        recordActivity(event.getPlayer(), ActivityType.CHAT);
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onPlayerCommand(PlayerCommandPreprocessEvent event) {
+        recordActivity(event.getPlayer(), ActivityType.COMMAND);
+    }
+
+    // Interactions with air are cancelled by default so cancelled events are still counted
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPlayerInteract(PlayerInteractEvent event) {
+        recordActivity(event.getPlayer(), ActivityType.INTERACT);
+    }
+
+    private void recordActivity(Player player, ActivityType activityType) {
+        ConfigManager configManager = LushRewards.getInstance().getConfigManager();
+        if (configManager.getPlaytimeIgnoreAfk() || !configManager.isAfkActivity(activityType)) {
+            return;
+        }
+
+        DataManager dataManager = LushRewards.getInstance().getDataManager();
+        PlayerSession session = dataManager != null ? dataManager.getSession(player.getUniqueId()) : null;
+        PlaytimeTracker playtimeTracker = session != null ? session.getPlaytimeTracker() : null;
+        if (playtimeTracker != null) {
+            playtimeTracker.recordActivity();
+        }
+    }
+}
@@ -1,6 +1,8 @@
 package org.lushplugins.lushrewards.listener;
 
 import org.lushplugins.lushrewards.LushRewards;
+import org.lushplugins.lushrewards.data.DataManager;
+import org.lushplugins.lushrewards.data.PlayerSession;
 import org.lushplugins.lushrewards.data.RewardUser;
 import org.lushplugins.lushrewards.module.RewardModule;
 import org.lushplugins.lushrewards.module.playtimetracker.PlaytimeTracker;
@@ -10,6 +12,8 @@ import org.lushplugins.lushlib.listener.EventListener;
 import org.lushplugins.lushlib.utils.Updater;
 import org.bukkit.entity.Player;
 import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.player.AsyncPlayerPreLoginEvent;
 import org.bukkit.event.player.PlayerJoinEvent;
 import org.bukkit.event.player.PlayerQuitEvent;
 
@@ -19,14 +23,34 @@ import java.util.UUID;
 
 public class RewardUserListener implements EventListener {
 
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPlayerPreLogin(AsyncPlayerPreLoginEvent event) {
+        if (event.getLoginResult() != AsyncPlayerPreLoginEvent.Result.ALLOWED) {
+            return;
+        }
+
+        LushRewards.getInstance().getDataManager().preloadUserData(event.getUniqueId());
+    }
+
     @EventHandler
     public void onPlayerJoin(PlayerJoinEvent event) {
         Player player = event.getPlayer();
-        LushRewards.getInstance().getDataManager().getOrLoadRewardUser(player.getUniqueId()).thenAccept((rewardUser) -> {
-            rewardUser.setUsername(player.getName());
-            LushRewards.getInstance().getModule(RewardModule.Type.PLAYTIME_TRACKER).ifPresent(module -> ((PlaytimeTrackerModule) module).startPlaytimeTracker(player));
+        LushRewards.getInstance().getDataManager().loadAllUserData(player.getUniqueId()).thenAccept((rewardUser) -> {
+            if (rewardUser == null) {
+                return;
+            }
+
+            // Data finishes loading on a storage thread, the player is only touched on their own scheduler
+            LushRewards.getMorePaperLib().scheduling().entitySpecificScheduler(player).run(() -> {
+                // The player may have left whilst their data was loading, a tracker started now would never be stopped
+                if (!player.isOnline()) {
+                    return;
+                }
+
+                rewardUser.setUsername(player.getName());
+                LushRewards.getInstance().getModule(RewardModule.Type.PLAYTIME_TRACKER).ifPresent(module -> ((PlaytimeTrackerModule) module).startPlaytimeTracker(player));
+            }, () -> {});
         });
-        LushRewards.getInstance().getDataManager().loadModulesUserData(player.getUniqueId());
 
         if (player.hasPermission("lushrewards.update")) {
             Updater updater = LushRewards.getInstance().getUpdater();
@@ -38,23 +62,27 @@ public class RewardUserListener implements EventListener {
 
     @EventHandler
     public void onPlayerDisconnect(PlayerQuitEvent event) {
-        Player player = event.getPlayer();
-        UUID uuid = player.getUniqueId();
-        RewardUser rewardUser = LushRewards.getInstance().getDataManager().getRewardUser(player);
+        UUID uuid = event.getPlayer().getUniqueId();
+        DataManager dataManager = LushRewards.getInstance().getDataManager();
+        dataManager.discardPreloadedUserData(uuid);
 
-        if (rewardUser != null) {
-            LushRewards.getInstance().getModule(RewardModule.Type.PLAYTIME_TRACKER).ifPresent(module -> {
-                PlaytimeTracker playtimeTracker = ((PlaytimeTrackerModule) module).stopPlaytimeTracker(uuid);
+        // Removing the session releases the player's data and stops their playtime tracker at once
+        PlayerSession session = dataManager.removeSession(uuid);
+        if (session != null) {
+            RewardUser rewardUser = session.getRewardUser();
+            if (rewardUser != null) {
+                PlaytimeTracker playtimeTracker = session.getPlaytimeTracker();
                 if (playtimeTracker != null) {
                     rewardUser.setMinutesPlayed(playtimeTracker.getGlobalPlaytime());
                 }
-            });
 
-            LushRewards.getInstance().getDataManager().saveRewardUser(rewardUser);
-            LushRewards.getInstance().getDataManager().unloadRewardUser(uuid);
+                dataManager.saveRewardUser(rewardUser);
+            }
+
+            // Modules from other plugins may not mark their data as changed, so it is written regardless
+            session.forEachModuleUserData(dataManager::forceSave);
         }
 
-        LushRewards.getInstance().getDataManager().saveModulesUserData(uuid);
-        LushRewards.getInstance().getDataManager().unloadModulesUserData(uuid);
+        dataManager.releaseUserData(uuid);
     }
 }
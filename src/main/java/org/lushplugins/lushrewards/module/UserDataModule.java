@@ -6,6 +6,8 @@ import org.jetbrains.annotations.NotNull;
 
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.function.UnaryOperator;
 
 public interface UserDataModule<T extends UserDataModule.UserData> {
 
@@ -34,8 +36,14 @@ public interface UserDataModule<T extends UserDataModule.UserData> {
     Class<T> getUserDataClass();
 
     abstract class UserData {
+        private static final AtomicIntegerFieldUpdater<UserData> VERSION = AtomicIntegerFieldUpdater.newUpdater(UserData.class, "version");
+        private static final AtomicIntegerFieldUpdater<UserData> SAVED_VERSION = AtomicIntegerFieldUpdater.newUpdater(UserData.class, "savedVersion");
+
         private final UUID uuid;
         private final String moduleId;
+        // Incremented on each change, the data only needs saving whilst it is ahead of the last saved version
+        private transient volatile int version;
+        private transient volatile int savedVersion;
 
         public UserData(UUID uuid, String moduleId) {
             this.uuid = uuid;
@@ -50,8 +58,76 @@ public interface UserDataModule<T extends UserDataModule.UserData> {
             return moduleId;
         }
 
+        /**
+         * Mark this data as changed so that it is written on the next save
+         */
+        public void markDirty() {
+            VERSION.incrementAndGet(this);
+        }
+
+        public boolean isDirty() {
+            return version != savedVersion;
+        }
+
+        public int getVersion() {
+            return version;
+        }
+
+        /**
+         * @param version The version of this data that has been written to storage
+         */
+        public void markSaved(int version) {
+            SAVED_VERSION.accumulateAndGet(this, version, Math::max);
+        }
+
         public JsonObject asJson() {
             return LushRewards.getInstance().getGson().toJsonTree(this).getAsJsonObject();
         }
     }
+
+    /**
+     * User data whose state is held in an immutable snapshot
+     * <p>
+     * Readers are never blocked and always see a complete snapshot, updates for a user are applied one at a time
+     *
+     * @param <S> The immutable state of this data
+     */
+    abstract class SnapshotUserData<S> extends UserData {
+        private volatile S snapshot;
+
+        public SnapshotUserData(UUID uuid, String moduleId, @NotNull S snapshot) {
+            super(uuid, moduleId);
+            this.snapshot = snapshot;
+        }
+
+        public @NotNull S getSnapshot() {
+            return snapshot;
+        }
+
+        /**
+         * Replace the snapshot with an updated copy, the data is only marked as changed if the snapshot differs
+         *
+         * @param updater Creates the new snapshot from the current snapshot
+         * @return Whether the snapshot was changed
+         */
+        public synchronized boolean update(UnaryOperator<S> updater) {
+            S snapshot = this.snapshot;
+            S updated = updater.apply(snapshot);
+            if (updated.equals(snapshot)) {
+                return false;
+            }
+
+            // Published before being marked as changed so that a save always writes at least this snapshot
+            this.snapshot = updated;
+            markDirty();
+            return true;
+        }
+
+        @Override
+        public JsonObject asJson() {
+            return toJson(snapshot);
+        }
+
+        protected abstract JsonObject toJson(S snapshot);
+    }
 }
@@ -0,0 +1,103 @@
+package org.lushplugins.lushrewards.module.dailyrewards;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonPrimitive;
+
+import java.util.Base64;
+import java.util.BitSet;
+import java.util.stream.IntStream;
+
+/**
+ * The day numbers a user has collected, where bit n marks day n as collected
+ * <p>
+ * Instances are immutable so that they can be shared between user data snapshots.
+ * Serialised as a base64 encoded bitset, the older json array of day numbers can still be read
+ */
+public final class CollectedDays {
+    private static final CollectedDays EMPTY = new CollectedDays(new BitSet());
+
+    private final BitSet days;
+
+    private CollectedDays(BitSet days) {
+        this.days = days;
+    }
+
+    public boolean contains(int dayNum) {
+        return dayNum >= 0 && days.get(dayNum);
+    }
+
+    /**
+     * @return These collected days with the day added
+     */
+    public CollectedDays with(int dayNum) {
+        if (dayNum < 0 || days.get(dayNum)) {
+            return this;
+        }
+
+        BitSet days = (BitSet) this.days.clone();
+        days.set(dayNum);
+        return new CollectedDays(days);
+    }
+
+    public boolean isEmpty() {
+        return days.isEmpty();
+    }
+
+    public int size() {
+        return days.cardinality();
+    }
+
+    public IntStream stream() {
+        return days.stream();
+    }
+
+    public byte[] toByteArray() {
+        return days.toByteArray();
+    }
+
+    public JsonElement toJson() {
+        return new JsonPrimitive(Base64.getEncoder().encodeToString(days.toByteArray()));
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return obj instanceof CollectedDays other && days.equals(other.days);
+    }
+
+    @Override
+    public int hashCode() {
+        return days.hashCode();
+    }
+
+    public static CollectedDays empty() {
+        return EMPTY;
+    }
+
+    public static CollectedDays valueOf(byte[] bytes) {
+        return new CollectedDays(BitSet.valueOf(bytes));
+    }
+
+    /**
+     * @param json Either a base64 encoded bitset or a json array of day numbers
+     */
+    public static CollectedDays fromJson(JsonElement json) {
+        if (json.isJsonArray()) {
+            BitSet days = new BitSet();
+            for (JsonElement day : json.getAsJsonArray()) {
+                int dayNum = day.getAsInt();
+                if (dayNum >= 0) {
+                    days.set(dayNum);
+                }
+            }
+
+            return new CollectedDays(days);
+        }
+
+        try {
+            return valueOf(Base64.getDecoder().decode(json.getAsString()));
+        } catch (IllegalArgumentException e) {
+            throw new JsonParseException("Invalid collected days: " + json, e);
+        }
+    }
+}
@@ -19,7 +19,6 @@ import org.bukkit.inventory.ItemStack;
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
 import java.time.format.TextStyle;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Optional;
@@ -92,7 +91,7 @@ public class DailyRewardsGui extends Gui {
 
                 ConfigManager configManager = LushRewards.getInstance().getConfigManager();
                 TreeMultimap<Character, Integer> slotMap = guiTemplate.getSlotMap();
-                HashSet<Integer> collectedDays = userData.getCollectedDays();
+                CollectedDays collectedDays = userData.getCollectedDays();
                 for (Character character : slotMap.keySet()) {
                     switch (character) {
                         case 'R' -> slotMap.get(character).forEach(slot -> {
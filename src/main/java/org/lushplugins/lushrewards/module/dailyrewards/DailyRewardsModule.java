@@ -1,7 +1,11 @@
 package org.lushplugins.lushrewards.module.dailyrewards;
 
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
 import org.lushplugins.lushlib.module.Module;
 import org.lushplugins.lushrewards.LushRewards;
+import org.lushplugins.lushrewards.data.DataManager;
+import org.lushplugins.lushrewards.data.PlayerSession;
 import org.lushplugins.lushrewards.data.RewardUser;
 import org.lushplugins.lushrewards.exceptions.InvalidRewardException;
 import org.lushplugins.lushrewards.gui.GuiDisplayer;
@@ -25,10 +29,9 @@ import java.io.File;
 import java.time.LocalDate;
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ConcurrentHashMap;
 
 public class DailyRewardsModule extends RewardModule implements UserDataModule<DailyRewardsModule.UserData>, GuiDisplayer {
-    private final ConcurrentHashMap<UUID, UserData> userDataCache = new ConcurrentHashMap<>();
+    private final int sessionSlot;
     private HashSet<DailyRewardCollection> rewards;
     private DailyRewardsPlaceholder placeholder;
     private int resetDaysAt;
@@ -46,6 +49,7 @@ public class DailyRewardsModule extends RewardModule implements UserDataModule<D
 
     public DailyRewardsModule(String id, File moduleFile) {
         super(id, moduleFile);
+        this.sessionSlot = PlayerSession.getModuleSlot(id);
     }
 
     @Override
@@ -153,7 +157,18 @@ public class DailyRewardsModule extends RewardModule implements UserDataModule<D
         }
 
         guiFormat = null;
-        userDataCache.clear();
+
+        // The data is left cached so that it is still available whilst the module is reloaded,
+        // it is replaced or uncached once user data is reloaded
+        DataManager dataManager = LushRewards.getInstance().getDataManager();
+        if (dataManager != null) {
+            dataManager.getSessions().forEach(session -> {
+                UserData userData = session.getModuleUserData(sessionSlot, UserData.class);
+                if (userData != null) {
+                    saveUserData(userData);
+                }
+            });
+        }
     }
 
     public boolean meetsRequiredPlaytime(Player player) {
@@ -171,7 +186,8 @@ public class DailyRewardsModule extends RewardModule implements UserDataModule<D
 
     @Override
     public boolean hasClaimableRewards(Player player) {
-        return userDataCache.containsKey(player.getUniqueId()) && !this.getUserData(player.getUniqueId()).hasCollectedToday() && meetsRequiredPlaytime(player);
+        UserData userData = getUserData(player.getUniqueId());
+        return userData != null && !userData.hasCollectedToday() && meetsRequiredPlaytime(player);
     }
 
     @Override
@@ -188,23 +204,25 @@ public class DailyRewardsModule extends RewardModule implements UserDataModule<D
             ChatColorHandler.sendMessage(player, "&#ff6969Failed to collect your reward user data, try relogging. If this continues inform an administrator");
             LushRewards.getInstance().getLogger().warning("Failed to collect reward user data for '" + player.getName() + "', reward user was '" + (rewardUser != null ? "found" : "not found") + "', user data was '" + (userData != null ? "found" : "not found") + "'");
             return false;
-        } else if (userData.hasCollectedToday()) {
-            return false;
         }
 
-        LocalDate lastCollectedDate = userData.getLastCollectedDate();
-        boolean missedDay = lastCollectedDate == null || (lastCollectedDate.isBefore(LocalDate.now().minusDays(1)) && !lastCollectedDate.isEqual(LocalDate.of(1971, 10, 1)));
+        // Applied as a single update so that the reward can only be claimed once
+        boolean claimed = userData.update(snapshot -> {
+            if (snapshot.hasCollectedToday()) {
+                return snapshot;
+            }
 
+            int streak = hasMissedDay(snapshot) && !streakBypass ? 1 : snapshot.streak() + 1;
+            return snapshot.withStreak(streak)
+                .withLastCollectedDate(LocalDate.now())
+                .withCollectedDays(snapshot.collectedDays().with(snapshot.dayNum()));
+        });
 
-        if (missedDay && !streakBypass) {
-            userData.setStreak(1);
-        } else {
-            userData.incrementStreak();
+        if (!claimed) {
+            return false;
         }
 
-        userData.setLastCollectedDate(LocalDate.now());
-        userData.addCollectedDay(userData.getDayNum());
-        this.saveUserData(userData)
+        LushRewards.getInstance().getDataManager().saveUserData(userData, true)
             .thenAccept(success -> {
                 if (!success) {
                     LushRewards.getInstance().getLogger().severe("Something went wrong when saving data for '" + player.getName() + "' (" + player.getUniqueId() + ")");
@@ -232,52 +250,56 @@ public class DailyRewardsModule extends RewardModule implements UserDataModule<D
     }
 
     public void checkRewardDay(UserData userData) {
-        LocalDate lastJoinDate = userData.getLastJoinDate();
-        if (lastJoinDate == null) {
-            userData.setLastJoinDate(LocalDate.now());
-            saveUserData(userData);
-            return;
-        } else if (lastJoinDate.isEqual(LocalDate.now())) {
-            return;
-        }
-
-        LocalDate lastCollectedDate = userData.getLastCollectedDate();
-        boolean missedDay = lastCollectedDate == null || (lastCollectedDate.isBefore(LocalDate.now().minusDays(1)) && !lastCollectedDate.isEqual(LocalDate.of(1971, 10, 1)));
+        userData.update(snapshot -> {
+            LocalDate lastJoinDate = snapshot.lastJoinDate();
+            if (lastJoinDate == null) {
+                return snapshot.withLastJoinDate(LocalDate.now());
+            } else if (lastJoinDate.isEqual(LocalDate.now())) {
+                return snapshot;
+            }
 
-        switch (getRewardMode()) {
-            case STREAK -> {
-                // Resets RewardUser to Day 1 if a day has been missed
-                if (missedDay) {
-                    userData.setDayNum(1);
-                    userData.setStreak(1);
-                    userData.clearCollectedDays();
-                } else {
-                    userData.incrementDayNum();
+            boolean missedDay = hasMissedDay(snapshot);
+            switch (getRewardMode()) {
+                case STREAK -> {
+                    // Resets RewardUser to Day 1 if a day has been missed
+                    if (missedDay) {
+                        snapshot = snapshot.withDayNum(1)
+                            .withStreak(1)
+                            .withCollectedDays(CollectedDays.empty());
+                    } else {
+                        snapshot = snapshot.withDayNum(snapshot.dayNum() + 1);
+                    }
                 }
-            }
-            case ON_CLAIM_ONLY -> {
-                if (userData.hasCollectedDay(userData.getDayNum()) && !userData.hasCollectedToday()) {
-                    userData.incrementDayNum();
+                case ON_CLAIM_ONLY -> {
+                    if (snapshot.collectedDays().contains(snapshot.dayNum()) && !snapshot.hasCollectedToday()) {
+                        snapshot = snapshot.withDayNum(snapshot.dayNum() + 1);
+                    }
                 }
+                case ONLINE_ONLY -> snapshot = snapshot.withDayNum(snapshot.dayNum() + 1);
+                case DEFAULT -> snapshot = snapshot.withDayNum((int) (LocalDate.now().toEpochDay() - snapshot.startDate().toEpochDay()) + 1);
             }
-            case ONLINE_ONLY -> userData.incrementDayNum();
-            case DEFAULT -> userData.setDayNum((int) (LocalDate.now().toEpochDay() - userData.getStartDate().toEpochDay()) + 1);
-        }
 
-        if (missedDay && !streakBypass) {
-            userData.setStreak(1);
-        }
+            if (missedDay && !streakBypass) {
+                snapshot = snapshot.withStreak(1);
+            }
 
-        int resetDay = getResetDay();
-        if (resetDay > 0 && userData.getDayNum() > resetDay) {
-            userData.setDayNum(1);
-            userData.clearCollectedDays();
-        }
+            int resetDay = getResetDay();
+            if (resetDay > 0 && snapshot.dayNum() > resetDay) {
+                snapshot = snapshot.withDayNum(1)
+                    .withCollectedDays(CollectedDays.empty());
+            }
+
+            return snapshot.withLastJoinDate(LocalDate.now());
+        });
 
-        userData.setLastJoinDate(LocalDate.now());
         saveUserData(userData);
     }
 
+    private boolean hasMissedDay(UserData.Snapshot snapshot) {
+        LocalDate lastCollectedDate = snapshot.lastCollectedDate();
+        return lastCollectedDate == null || (lastCollectedDate.isBefore(LocalDate.now().minusDays(1)) && !lastCollectedDate.isEqual(LocalDate.of(1971, 10, 1)));
+    }
+
     @NotNull
     public Collection<DailyRewardCollection> getDayNumRewards(int day) {
         return rewards.stream().filter(rewardCollection -> rewardCollection.isAvailableOn(day)).toList();
@@ -385,12 +407,14 @@ public class DailyRewardsModule extends RewardModule implements UserDataModule<D
 
     @Override
     public UserData getDefaultData(UUID uuid) {
-        return new UserData(uuid, id, null, 1, 0, 0, LocalDate.now(), null, new HashSet<>());
+        return new UserData(uuid, id, null, 1, 0, 0, LocalDate.now(), null, CollectedDays.empty());
     }
 
     @Override
     public UserData getUserData(UUID uuid) {
-        return userDataCache.get(uuid);
+        DataManager dataManager = LushRewards.getInstance().getDataManager();
+        PlayerSession session = dataManager != null ? dataManager.getSession(uuid) : null;
+        return session != null ? session.getModuleUserData(sessionSlot, UserData.class) : null;
     }
 
     @Override
@@ -416,13 +440,16 @@ public class DailyRewardsModule extends RewardModule implements UserDataModule<D
     @Override
     public void cacheUserData(UUID uuid, UserDataModule.UserData userData) {
         if (userData instanceof UserData data) {
-            userDataCache.put(uuid, data);
+            LushRewards.getInstance().getDataManager().getOrCreateSession(uuid).setModuleUserData(sessionSlot, data);
         }
     }
 
     @Override
     public void uncacheUserData(UUID uuid) {
-        userDataCache.remove(uuid);
+        PlayerSession session = LushRewards.getInstance().getDataManager().getSession(uuid);
+        if (session != null) {
+            session.setModuleUserData(sessionSlot, null);
+        }
     }
 
     @Override
@@ -430,63 +457,50 @@ public class DailyRewardsModule extends RewardModule implements UserDataModule<D
         return UserData.class;
     }
 
-    public static class UserData extends UserDataModule.UserData {
-        private final LocalDate startDate;
-        private LocalDate lastJoinDate;
-        private LocalDate lastCollectedDate;
-        private final HashSet<Integer> collectedDays;
-        private int dayNum;
-        private int streak;
-        private int highestStreak;
+    public static class UserData extends UserDataModule.SnapshotUserData<UserData.Snapshot> {
+
+        public UserData(UUID uuid, String moduleId, LocalDate lastJoinDate, int dayNum, int streak, int highestStreak, LocalDate startDate, LocalDate lastCollectedDate, CollectedDays collectedDays) {
+            this(uuid, moduleId, new Snapshot(startDate, lastJoinDate, lastCollectedDate, collectedDays, dayNum, streak, highestStreak));
+        }
 
-        public UserData(UUID uuid, String moduleId, LocalDate lastJoinDate, int dayNum, int streak, int highestStreak, LocalDate startDate, LocalDate lastCollectedDate, HashSet<Integer> collectedDays) {
-            super(uuid, moduleId);
-            this.startDate = startDate;
-            this.lastJoinDate = lastJoinDate;
-            this.lastCollectedDate = lastCollectedDate;
-            this.collectedDays = collectedDays;
-            this.dayNum = dayNum;
-            this.streak = streak;
-            this.highestStreak = highestStreak;
+        public UserData(UUID uuid, String moduleId, @NotNull Snapshot snapshot) {
+            super(uuid, moduleId, snapshot);
         }
 
         public LocalDate getLastJoinDate() {
-            return lastJoinDate;
+            return getSnapshot().lastJoinDate();
         }
 
         public void setLastJoinDate(LocalDate lastJoinDate) {
-            this.lastJoinDate = lastJoinDate;
+            update(snapshot -> snapshot.withLastJoinDate(lastJoinDate));
         }
 
         public int getDayNum() {
-            return dayNum;
+            return getSnapshot().dayNum();
         }
 
         public void setDayNum(int dayNum) {
-            this.dayNum = dayNum;
+            update(snapshot -> snapshot.withDayNum(dayNum));
         }
 
         public void incrementDayNum() {
-            this.dayNum++;
+            update(snapshot -> snapshot.withDayNum(snapshot.dayNum() + 1));
         }
 
         public int getStreak() {
-            return streak;
+            return getSnapshot().streak();
         }
 
         public void setStreak(int streak) {
-            this.streak = streak;
-            if (streak > highestStreak) {
-                highestStreak = streak;
-            }
+            update(snapshot -> snapshot.withStreak(streak));
         }
 
         public void incrementStreak() {
-            setStreak(this.streak + 1);
+            update(snapshot -> snapshot.withStreak(snapshot.streak() + 1));
         }
 
         public int getHighestStreak() {
-            return highestStreak;
+            return getSnapshot().highestStreak();
         }
 
         public LocalDate getExpectedDateOnDayNum(int dayNum) {
@@ -494,36 +508,102 @@ public class DailyRewardsModule extends RewardModule implements UserDataModule<D
         }
 
         public LocalDate getStartDate() {
-            return this.startDate;
+            return getSnapshot().startDate();
         }
 
         @Nullable
         public LocalDate getLastCollectedDate() {
-            return this.lastCollectedDate;
+            return getSnapshot().lastCollectedDate();
         }
 
         public void setLastCollectedDate(LocalDate date) {
-            this.lastCollectedDate = date;
+            update(snapshot -> snapshot.withLastCollectedDate(date));
         }
 
         public boolean hasCollectedToday() {
-            return lastCollectedDate != null && lastCollectedDate.isEqual(LocalDate.now());
+            return getSnapshot().hasCollectedToday();
         }
 
-        public HashSet<Integer> getCollectedDays() {
-            return collectedDays;
+        public CollectedDays getCollectedDays() {
+            return getSnapshot().collectedDays();
         }
 
         public boolean hasCollectedDay(int dayNum) {
-            return collectedDays.contains(dayNum);
+            return getSnapshot().collectedDays().contains(dayNum);
         }
 
         public void addCollectedDay(int dayNum) {
-            collectedDays.add(dayNum);
+            update(snapshot -> snapshot.withCollectedDays(snapshot.collectedDays().with(dayNum)));
         }
 
         public void clearCollectedDays() {
-            collectedDays.clear();
+            update(snapshot -> snapshot.withCollectedDays(CollectedDays.empty()));
+        }
+
+        @Override
+        protected JsonObject toJson(Snapshot snapshot) {
+            JsonObject json = new JsonObject();
+            addDate(json, "startDate", snapshot.startDate());
+            addDate(json, "lastJoinDate", snapshot.lastJoinDate());
+            addDate(json, "lastCollectedDate", snapshot.lastCollectedDate());
+            json.add("collectedDays", snapshot.collectedDays().toJson());
+            json.addProperty("dayNum", snapshot.dayNum());
+            json.addProperty("streak", snapshot.streak());
+            json.addProperty("highestStreak", snapshot.highestStreak());
+            return json;
+        }
+
+        public static UserData fromJson(UUID uuid, String moduleId, JsonObject json) {
+            return new UserData(uuid, moduleId, new Snapshot(
+                getDate(json, "startDate"),
+                getDate(json, "lastJoinDate"),
+                getDate(json, "lastCollectedDate"),
+                json.has("collectedDays") ? CollectedDays.fromJson(json.get("collectedDays")) : CollectedDays.empty(),
+                json.has("dayNum") ? json.get("dayNum").getAsInt() : 0,
+                json.has("streak") ? json.get("streak").getAsInt() : 0,
+                json.has("highestStreak") ? json.get("highestStreak").getAsInt() : 0
+            ));
+        }
+
+        private static void addDate(JsonObject json, String field, @Nullable LocalDate date) {
+            if (date != null) {
+                json.addProperty(field, date.toString());
+            }
+        }
+
+        private static @Nullable LocalDate getDate(JsonObject json, String field) {
+            JsonElement date = json.get(field);
+            return date != null && !date.isJsonNull() ? LocalDate.parse(date.getAsString()) : null;
+        }
+
+        public record Snapshot(LocalDate startDate, @Nullable LocalDate lastJoinDate, @Nullable LocalDate lastCollectedDate, @NotNull CollectedDays collectedDays, int dayNum, int streak, int highestStreak) {
+
+            public boolean hasCollectedToday() {
+                return lastCollectedDate != null && lastCollectedDate.isEqual(LocalDate.now());
+            }
+
+            public Snapshot withLastJoinDate(@Nullable LocalDate lastJoinDate) {
+                return new Snapshot(startDate, lastJoinDate, lastCollectedDate, collectedDays, dayNum, streak, highestStreak);
+            }
+
+            public Snapshot withLastCollectedDate(@Nullable LocalDate lastCollectedDate) {
+                return new Snapshot(startDate, lastJoinDate, lastCollectedDate, collectedDays, dayNum, streak, highestStreak);
+            }
+
+            public Snapshot withCollectedDays(@NotNull CollectedDays collectedDays) {
+                return new Snapshot(startDate, lastJoinDate, lastCollectedDate, collectedDays, dayNum, streak, highestStreak);
+            }
+
+            public Snapshot withDayNum(int dayNum) {
+                return new Snapshot(startDate, lastJoinDate, lastCollectedDate, collectedDays, dayNum, streak, highestStreak);
+            }
+
+            /**
+             * The highest streak is raised to match the new streak
+             */
+            public Snapshot withStreak(int streak) {
+                return new Snapshot(startDate, lastJoinDate, lastCollectedDate, collectedDays, dayNum, streak, Math.max(highestStreak, streak));
+            }
         }
     }
 
@@ -57,6 +57,28 @@ public class PlaytimeRewardCollection extends RewardCollection {
         return Math.max(result, 0); // Ensure that the value is not less than 0
     }
 
+    /**
+     * @param playtime The playtime that rewards have been counted up to
+     * @return The first playtime after this playtime at which more of this collection becomes available,
+     * or -1 if no more will become available
+     */
+    public int getNextAvailableAt(int playtime) {
+        long next;
+        if (repeatFrequency <= 0) {
+            next = playtime <= startMinute ? startMinute + 1L : -1;
+        } else if (playtime < startMinute) {
+            next = startMinute;
+        } else {
+            next = startMinute + ((long) (playtime - startMinute) / repeatFrequency + 1) * repeatFrequency;
+        }
+
+        if (next <= playtime || next > Integer.MAX_VALUE) {
+            return -1;
+        }
+
+        return amountAvailableAt(playtime, (int) next) > 0 ? (int) next : -1;
+    }
+
     public int getStartMinute() {
         return startMinute;
     }
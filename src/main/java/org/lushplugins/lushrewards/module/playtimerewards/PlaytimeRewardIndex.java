@@ -0,0 +1,354 @@
+package org.lushplugins.lushrewards.module.playtimerewards;
+
+import java.util.*;
+
+/**
+ * An immutable index of a module's playtime reward collections for finding the rewards within a range of playtime
+ * <p>
+ * Collections that become available at a single minute are sorted by that minute so that they can be found with a
+ * binary search. Repeating collections are grouped by their repeat frequency and then by the minute within that
+ * frequency that they repeat on, so a range shorter than the frequency only visits the collections that repeat
+ * within it. Queries do not allocate
+ */
+public final class PlaytimeRewardIndex {
+    private static final PlaytimeRewardIndex EMPTY = new PlaytimeRewardIndex(new PlaytimeRewardCollection[0], new PlaytimeRewardCollection[0], new RepeatingGroup[0]);
+
+    private final int[] onceStartMinutes;
+    private final PlaytimeRewardCollection[] onceCollections;
+    // Repeating collections that stop repeating before they start are only available once their start minute is reached
+    private final int[] fixedStartMinutes;
+    private final PlaytimeRewardCollection[] fixedCollections;
+    private final RepeatingGroup[] repeatingGroups;
+
+    private PlaytimeRewardIndex(PlaytimeRewardCollection[] onceCollections, PlaytimeRewardCollection[] fixedCollections, RepeatingGroup[] repeatingGroups) {
+        this.onceCollections = onceCollections;
+        this.onceStartMinutes = getStartMinutes(onceCollections);
+        this.fixedCollections = fixedCollections;
+        this.fixedStartMinutes = getStartMinutes(fixedCollections);
+        this.repeatingGroups = repeatingGroups;
+    }
+
+    /**
+     * Pass each collection with rewards available within the range to the sink
+     *
+     * @param lower Lower bound (exclusive)
+     * @param upper Upper bound (inclusive)
+     */
+    public void forEachInRange(int lower, int upper, Sink sink) {
+        if (upper <= lower) {
+            return;
+        }
+
+        // A collection that does not repeat becomes available once playtime is past its start minute
+        for (int i = firstIndexAtLeast(onceStartMinutes, lower); i < onceStartMinutes.length && onceStartMinutes[i] < upper; i++) {
+            sink.accept(onceCollections[i], 1);
+        }
+
+        for (int i = firstIndexAbove(fixedStartMinutes, lower); i < fixedStartMinutes.length && fixedStartMinutes[i] <= upper; i++) {
+            sink.accept(fixedCollections[i], fixedCollections[i].amountAvailableAt(lower, upper));
+        }
+
+        for (RepeatingGroup group : repeatingGroups) {
+            group.forEachInRange(lower, upper, sink);
+        }
+    }
+
+    /**
+     * @param lower Lower bound (exclusive)
+     * @param upper Upper bound (inclusive)
+     * @return Whether any rewards are available within the range
+     */
+    public boolean hasAnyInRange(int lower, int upper) {
+        if (upper <= lower) {
+            return false;
+        }
+
+        int onceIndex = firstIndexAtLeast(onceStartMinutes, lower);
+        if (onceIndex < onceStartMinutes.length && onceStartMinutes[onceIndex] < upper) {
+            return true;
+        }
+
+        int fixedIndex = firstIndexAbove(fixedStartMinutes, lower);
+        if (fixedIndex < fixedStartMinutes.length && fixedStartMinutes[fixedIndex] <= upper) {
+            return true;
+        }
+
+        for (RepeatingGroup group : repeatingGroups) {
+            if (group.hasAnyInRange(lower, upper)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * @param playtime The playtime that rewards have been counted up to
+     * @return The first playtime after this playtime at which more rewards become available, or -1 if no more will
+     */
+    public int getNextAvailableAt(int playtime) {
+        long next = Long.MAX_VALUE;
+
+        int onceIndex = firstIndexAtLeast(onceStartMinutes, playtime);
+        if (onceIndex < onceCollections.length) {
+            int nextAvailable = onceCollections[onceIndex].getNextAvailableAt(playtime);
+            if (nextAvailable >= 0) {
+                next = nextAvailable;
+            }
+        }
+
+        int fixedIndex = firstIndexAbove(fixedStartMinutes, playtime);
+        if (fixedIndex < fixedStartMinutes.length) {
+            next = Math.min(next, fixedStartMinutes[fixedIndex]);
+        }
+
+        for (RepeatingGroup group : repeatingGroups) {
+            next = Math.min(next, group.getNextAvailableAt(playtime, next));
+        }
+
+        return next <= Integer.MAX_VALUE ? (int) next : -1;
+    }
+
+    public boolean isEmpty() {
+        return onceCollections.length == 0 && fixedCollections.length == 0 && repeatingGroups.length == 0;
+    }
+
+    /**
+     * @return The index of the first value that is at least the key, or the array's length if there is none
+     */
+    private static int firstIndexAtLeast(int[] values, int key) {
+        int low = 0;
+        int high = values.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (values[mid] < key) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+
+        return low;
+    }
+
+    /**
+     * @return The index of the first value that is above the key, or the array's length if there is none
+     */
+    private static int firstIndexAbove(int[] values, int key) {
+        int low = 0;
+        int high = values.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (values[mid] <= key) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+
+        return low;
+    }
+
+    private static int[] getStartMinutes(PlaytimeRewardCollection[] rewardCollections) {
+        return Arrays.stream(rewardCollections).mapToInt(PlaytimeRewardCollection::getStartMinute).toArray();
+    }
+
+    public static PlaytimeRewardIndex of(Collection<PlaytimeRewardCollection> rewardCollections) {
+        Comparator<PlaytimeRewardCollection> byStartMinute = Comparator.comparingInt(PlaytimeRewardCollection::getStartMinute);
+        List<PlaytimeRewardCollection> onceCollections = new ArrayList<>();
+        List<PlaytimeRewardCollection> fixedCollections = new ArrayList<>();
+        Map<Integer, List<PlaytimeRewardCollection>> repeatingCollections = new TreeMap<>();
+
+        for (PlaytimeRewardCollection rewardCollection : rewardCollections) {
+            if (rewardCollection.getRepeatFrequency() <= 0) {
+                onceCollections.add(rewardCollection);
+            } else if (rewardCollection.getRepeatsUntil() >= rewardCollection.getStartMinute()) {
+                repeatingCollections.computeIfAbsent(rewardCollection.getRepeatFrequency(), (ignored) -> new ArrayList<>()).add(rewardCollection);
+            } else if (rewardCollection.amountAvailableAt(rewardCollection.getStartMinute()) > 0) {
+                // Collections that stop repeating before they start and have nothing available are left out
+                fixedCollections.add(rewardCollection);
+            }
+        }
+
+        onceCollections.sort(byStartMinute);
+        fixedCollections.sort(byStartMinute);
+
+        return new PlaytimeRewardIndex(
+            onceCollections.toArray(PlaytimeRewardCollection[]::new),
+            fixedCollections.toArray(PlaytimeRewardCollection[]::new),
+            repeatingCollections.entrySet().stream()
+                .map(entry -> RepeatingGroup.of(entry.getKey(), entry.getValue()))
+                .toArray(RepeatingGroup[]::new)
+        );
+    }
+
+    public static PlaytimeRewardIndex empty() {
+        return EMPTY;
+    }
+
+    /**
+     * Receives the results of a range query
+     */
+    @FunctionalInterface
+    public interface Sink {
+
+        /**
+         * @param amount The number of times the collection's rewards are available within the range
+         */
+        void accept(PlaytimeRewardCollection rewardCollection, int amount);
+    }
+
+    /**
+     * Repeating collections that share a repeat frequency, a collection repeats on every minute with the same
+     * remainder as its start minute when divided by the frequency
+     */
+    private static final class RepeatingGroup {
+        private final int frequency;
+        private final int[] startMinutes;
+        private final PlaytimeRewardCollection[] collections;
+        // The remainders that collections repeat on, each with its collections sorted by start minute
+        private final int[] remainders;
+        private final PlaytimeRewardCollection[][] remainderCollections;
+
+        private RepeatingGroup(int frequency, PlaytimeRewardCollection[] collections, int[] remainders, PlaytimeRewardCollection[][] remainderCollections) {
+            this.frequency = frequency;
+            this.collections = collections;
+            this.startMinutes = getStartMinutes(collections);
+            this.remainders = remainders;
+            this.remainderCollections = remainderCollections;
+        }
+
+        public void forEachInRange(int lower, int upper, Sink sink) {
+            // A range that covers a full repeat can include every collection that has started, possibly several times over
+            if ((long) upper - lower >= frequency) {
+                int end = firstIndexAbove(startMinutes, upper);
+                for (int i = 0; i < end; i++) {
+                    int amount = collections[i].amountAvailableAt(lower, upper);
+                    if (amount > 0) {
+                        sink.accept(collections[i], amount);
+                    }
+                }
+                return;
+            }
+
+            long first = (long) lower + 1;
+            int firstRemainder = Math.floorMod(first, frequency);
+            int index = firstIndexAtLeast(remainders, firstRemainder);
+            for (int visited = 0; visited < remainders.length; visited++, index++) {
+                if (index == remainders.length) {
+                    index = 0;
+                }
+
+                long minute = first + Math.floorMod(remainders[index] - firstRemainder, frequency);
+                if (minute > upper) {
+                    return;
+                }
+
+                for (PlaytimeRewardCollection rewardCollection : remainderCollections[index]) {
+                    if (rewardCollection.getStartMinute() > minute) {
+                        break;
+                    }
+
+                    if (minute <= rewardCollection.getRepeatsUntil()) {
+                        sink.accept(rewardCollection, 1);
+                    }
+                }
+            }
+        }
+
+        public boolean hasAnyInRange(int lower, int upper) {
+            if ((long) upper - lower >= frequency) {
+                int end = firstIndexAbove(startMinutes, upper);
+                for (int i = 0; i < end; i++) {
+                    if (collections[i].amountAvailableAt(lower, upper) > 0) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+
+            long first = (long) lower + 1;
+            int firstRemainder = Math.floorMod(first, frequency);
+            int index = firstIndexAtLeast(remainders, firstRemainder);
+            for (int visited = 0; visited < remainders.length; visited++, index++) {
+                if (index == remainders.length) {
+                    index = 0;
+                }
+
+                long minute = first + Math.floorMod(remainders[index] - firstRemainder, frequency);
+                if (minute > upper) {
+                    return false;
+                }
+
+                if (isRepeatingAt(remainderCollections[index], minute)) {
+                    return true;
+                }
+            }
+
+            return false;
+        }
+
+        /**
+         * @param limit No minute at or after this limit is looked for
+         * @return The first minute after the playtime that a collection in this group is available at, or the limit
+         */
+        public long getNextAvailableAt(int playtime, long limit) {
+            // A collection that has not started yet is next available at its start minute
+            int startIndex = firstIndexAbove(startMinutes, playtime);
+            if (startIndex < startMinutes.length) {
+                limit = Math.min(limit, startMinutes[startIndex]);
+            }
+
+            long first = (long) playtime + 1;
+            int firstRemainder = Math.floorMod(first, frequency);
+            int index = firstIndexAtLeast(remainders, firstRemainder);
+            for (int visited = 0; visited < remainders.length; visited++, index++) {
+                if (index == remainders.length) {
+                    index = 0;
+                }
+
+                long minute = first + Math.floorMod(remainders[index] - firstRemainder, frequency);
+                if (minute >= limit) {
+                    break;
+                }
+
+                if (isRepeatingAt(remainderCollections[index], minute)) {
+                    return minute;
+                }
+            }
+
+            return limit;
+        }
+
+        private static boolean isRepeatingAt(PlaytimeRewardCollection[] rewardCollections, long minute) {
+            for (PlaytimeRewardCollection rewardCollection : rewardCollections) {
+                if (rewardCollection.getStartMinute() > minute) {
+                    return false;
+                }
+
+                if (minute <= rewardCollection.getRepeatsUntil()) {
+                    return true;
+                }
+            }
+
+            return false;
+        }
+
+        public static RepeatingGroup of(int frequency, List<PlaytimeRewardCollection> rewardCollections) {
+            Comparator<PlaytimeRewardCollection> byStartMinute = Comparator.comparingInt(PlaytimeRewardCollection::getStartMinute);
+            Map<Integer, List<PlaytimeRewardCollection>> byRemainder = new TreeMap<>();
+            for (PlaytimeRewardCollection rewardCollection : rewardCollections) {
+                byRemainder.computeIfAbsent(Math.floorMod(rewardCollection.getStartMinute(), frequency), (ignored) -> new ArrayList<>()).add(rewardCollection);
+            }
+
+            return new RepeatingGroup(
+                frequency,
+                rewardCollections.stream().sorted(byStartMinute).toArray(PlaytimeRewardCollection[]::new),
+                byRemainder.keySet().stream().mapToInt(Integer::intValue).toArray(),
+                byRemainder.values().stream()
+                    .map(remainderCollections -> remainderCollections.stream().sorted(byStartMinute).toArray(PlaytimeRewardCollection[]::new))
+                    .toArray(PlaytimeRewardCollection[][]::new)
+            );
+        }
+    }
+}
@@ -1,6 +1,10 @@
 package org.lushplugins.lushrewards.module.playtimerewards;
 
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
 import org.lushplugins.lushrewards.LushRewards;
+import org.lushplugins.lushrewards.data.DataManager;
+import org.lushplugins.lushrewards.data.PlayerSession;
 import org.lushplugins.lushrewards.data.RewardUser;
 import org.lushplugins.lushrewards.exceptions.InvalidRewardException;
 import org.lushplugins.lushrewards.gui.GuiDisplayer;
@@ -20,10 +24,15 @@ import java.io.File;
 import java.time.LocalDate;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class PlaytimeRewardsModule extends RewardModule implements UserDataModule<PlaytimeRewardsModule.UserData>, GuiDisplayer {
-    private final ConcurrentHashMap<UUID, UserData> userDataCache = new ConcurrentHashMap<>();
+    // Changed whenever playtime rewards are enabled or disabled so that scheduled reward checks are worked out again
+    private static final AtomicInteger SCHEDULE_VERSION = new AtomicInteger();
+
+    private final int sessionSlot;
     private ConcurrentHashMap<Integer, PlaytimeRewardCollection> minutesToReward;
+    private volatile PlaytimeRewardIndex rewardIndex = PlaytimeRewardIndex.empty();
     private PlaytimeRewardsPlaceholder placeholder;
     private int resetPlaytimeAt;
     private int refreshTime;
@@ -33,6 +42,7 @@ public class PlaytimeRewardsModule extends RewardModule implements UserDataModul
 
     public PlaytimeRewardsModule(String id, File moduleFile) {
         super(id, moduleFile, true);
+        this.sessionSlot = PlayerSession.getModuleSlot(id);
     }
 
     @Override
@@ -89,14 +99,19 @@ public class PlaytimeRewardsModule extends RewardModule implements UserDataModul
             minutesToReward.put(minutes, rewardCollection);
         }
 
+        rewardIndex = PlaytimeRewardIndex.of(minutesToReward.values());
+
         placeholder = new PlaytimeRewardsPlaceholder(id);
         placeholder.register();
 
+        SCHEDULE_VERSION.incrementAndGet();
         LushRewards.getInstance().getLogger().info("Successfully loaded " + minutesToReward.size() + " reward collections from 'goals'");
     }
 
     @Override
     public void onDisable() {
+        SCHEDULE_VERSION.incrementAndGet();
+        rewardIndex = PlaytimeRewardIndex.empty();
         if (minutesToReward != null) {
             minutesToReward.clear();
             minutesToReward = null;
@@ -107,7 +122,17 @@ public class PlaytimeRewardsModule extends RewardModule implements UserDataModul
             placeholder = null;
         }
 
-        userDataCache.clear();
+        // The data is left cached so that it is still available whilst the module is reloaded,
+        // it is replaced or uncached once user data is reloaded
+        DataManager dataManager = LushRewards.getInstance().getDataManager();
+        if (dataManager != null) {
+            dataManager.getSessions().forEach(session -> {
+                UserData userData = session.getModuleUserData(sessionSlot, UserData.class);
+                if (userData != null) {
+                    saveUserData(userData);
+                }
+            });
+        }
     }
 
     @Override
@@ -123,14 +148,14 @@ public class PlaytimeRewardsModule extends RewardModule implements UserDataModul
         }
 
         if (resetPlaytimeAt > 0 && !userData.getStartDate().isAfter(LocalDate.now().minusDays(resetPlaytimeAt))) {
-            userData.setStartDate(LocalDate.now());
-            userData.setPreviousDayEndPlaytime(userData.getLastCollectedPlaytime());
+            userData.resetStartDate();
             saveUserData(userData);
         }
 
         globalPlaytime = globalPlaytime != null ? globalPlaytime : rewardUser.getMinutesPlayed();
-        int previousDayEnd = userData.getPreviousDayEndPlaytime();
-        return !getRewardCollectionsInRange(userData.getLastCollectedPlaytime() - previousDayEnd, globalPlaytime - previousDayEnd).isEmpty();
+        UserData.Snapshot snapshot = userData.getSnapshot();
+        int previousDayEnd = snapshot.previousDayEndPlaytime();
+        return rewardIndex.hasAnyInRange(snapshot.lastCollectedPlaytime() - previousDayEnd, globalPlaytime - previousDayEnd);
     }
 
     @Override
@@ -149,25 +174,32 @@ public class PlaytimeRewardsModule extends RewardModule implements UserDataModul
 
         boolean saveUserData = false;
         if (resetPlaytimeAt > 0 && userData.getStartDate().isEqual(LocalDate.now().minusDays(resetPlaytimeAt))) {
-            userData.setStartDate(LocalDate.now());
-            userData.setPreviousDayEndPlaytime(userData.getLastCollectedPlaytime());
+            userData.resetStartDate();
             saveUserData = true;
         }
 
         globalPlaytime = globalPlaytime != null ? globalPlaytime : rewardUser.getMinutesPlayed();
-        int previousDayEnd = userData.getPreviousDayEndPlaytime();
+        UserData.Snapshot snapshot = userData.getSnapshot();
+        int previousDayEnd = snapshot.previousDayEndPlaytime();
         int playtime = globalPlaytime - previousDayEnd;
-        int lastCollectedPlaytime = Math.max(userData.getLastCollectedPlaytime() - previousDayEnd, 0);
+        int lastCollectedPlaytime = Math.max(snapshot.lastCollectedPlaytime() - previousDayEnd, 0);
         int playtimeSinceLastCollected = playtime - lastCollectedPlaytime;
-        HashMap<PlaytimeRewardCollection, Integer> rewards = getRewardCollectionsInRange(lastCollectedPlaytime, playtime);
-        if (rewards.isEmpty()) {
+        PlaytimeRewardIndex rewardIndex = this.rewardIndex;
+        if (!rewardIndex.hasAnyInRange(lastCollectedPlaytime, playtime)) {
             if (saveUserData) {
                 saveUserData(userData);
             }
             return false;
         }
 
-        rewards.forEach((rewardCollection, amount) -> {
+        // Only claimed if no other claim has changed the data since the rewards were worked out
+        int collectedPlaytime = globalPlaytime;
+        boolean claimed = userData.update(current -> current == snapshot ? current.withLastCollectedPlaytime(collectedPlaytime) : current);
+        if (!claimed) {
+            return false;
+        }
+
+        rewardIndex.forEachInRange(lastCollectedPlaytime, playtime, (rewardCollection, amount) -> {
             for (int i = 0; i < amount; i++) {
                 rewardCollection.giveAll(player);
             }
@@ -186,8 +218,7 @@ public class PlaytimeRewardsModule extends RewardModule implements UserDataModul
             .replace("%total_minutes%", String.valueOf(playtime))
             .replace("%total_hours%", String.valueOf((int) Math.floor(playtime / 60D))));
 
-        userData.setLastCollectedPlaytime(globalPlaytime);
-        saveUserData(userData);
+        LushRewards.getInstance().getDataManager().saveUserData(userData, true);
         return true;
     }
 
@@ -207,20 +238,72 @@ public class PlaytimeRewardsModule extends RewardModule implements UserDataModul
         return minutesToReward.values();
     }
 
+    /**
+     * Work out when rewards next need to be claimed for a user so that they do not need to be checked every minute
+     *
+     * @param globalPlaytime The user's current playtime
+     * @return The playtime at which rewards should next be claimed, or {@link Integer#MAX_VALUE} if no more rewards will become available
+     */
+    public int getNextRefreshPlaytime(UUID uuid, int globalPlaytime) {
+        if (refreshTime <= 0) {
+            return Integer.MAX_VALUE;
+        }
+
+        UserData userData = getUserData(uuid);
+        if (userData == null) {
+            return globalPlaytime + 1;
+        }
+
+        UserData.Snapshot snapshot = userData.getSnapshot();
+        int previousDayEnd = snapshot.previousDayEndPlaytime();
+        int playtime = globalPlaytime - previousDayEnd;
+        int lastCollectedPlaytime = Math.max(snapshot.lastCollectedPlaytime() - previousDayEnd, 0);
+
+        long nextPlaytime;
+        PlaytimeRewardIndex rewardIndex = this.rewardIndex;
+        if (rewardIndex.hasAnyInRange(lastCollectedPlaytime, playtime)) {
+            // Rewards that are already available are claimed on the next refresh
+            nextPlaytime = globalPlaytime + 1L;
+        } else {
+            int nextAvailable = rewardIndex.getNextAvailableAt(Math.max(playtime, lastCollectedPlaytime));
+            if (nextAvailable < 0) {
+                return Integer.MAX_VALUE;
+            }
+
+            nextPlaytime = (long) nextAvailable + previousDayEnd;
+        }
+
+        // Rewards are only claimed on minutes that are a multiple of the refresh time
+        long nextRefresh = -Math.floorDiv(-Math.max(nextPlaytime, globalPlaytime + 1L), refreshTime) * refreshTime;
+        return (int) Math.min(nextRefresh, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @return A number that changes whenever playtime rewards are enabled or disabled
+     */
+    public static int getScheduleVersion() {
+        return SCHEDULE_VERSION.get();
+    }
+
     @Nullable
     public RewardCollection getRewardCollection(int minutes) {
         return minutesToReward.get(minutes);
     }
 
+    /**
+     * @return The index used to find the reward collections within a range of playtime
+     */
+    public PlaytimeRewardIndex getRewardIndex() {
+        return rewardIndex;
+    }
+
+    /**
+     * Prefer {@link PlaytimeRewardIndex#forEachInRange(int, int, PlaytimeRewardIndex.Sink)} which does not allocate
+     */
     @NotNull
     public HashMap<PlaytimeRewardCollection, Integer> getRewardCollectionsInRange(int lower, int upper) {
         HashMap<PlaytimeRewardCollection, Integer> output = new HashMap<>();
-        minutesToReward.values().forEach(rewardCollection -> {
-            int amount = rewardCollection.amountAvailableAt(lower, upper);
-            if (amount > 0) {
-                output.put(rewardCollection, amount);
-            }
-        });
+        rewardIndex.forEachInRange(lower, upper, output::put);
         return output;
     }
 
@@ -281,19 +364,24 @@ public class PlaytimeRewardsModule extends RewardModule implements UserDataModul
 
     @Override
     public UserData getUserData(UUID uuid) {
-        return userDataCache.get(uuid);
+        DataManager dataManager = LushRewards.getInstance().getDataManager();
+        PlayerSession session = dataManager != null ? dataManager.getSession(uuid) : null;
+        return session != null ? session.getModuleUserData(sessionSlot, UserData.class) : null;
     }
 
     @Override
     public void cacheUserData(UUID uuid, UserDataModule.UserData userData) {
         if (userData instanceof UserData data) {
-            userDataCache.put(uuid, data);
+            LushRewards.getInstance().getDataManager().getOrCreateSession(uuid).setModuleUserData(sessionSlot, data);
         }
     }
 
     @Override
     public void uncacheUserData(UUID uuid) {
-        userDataCache.remove(uuid);
+        PlayerSession session = LushRewards.getInstance().getDataManager().getSession(uuid);
+        if (session != null) {
+            session.setModuleUserData(sessionSlot, null);
+        }
     }
 
     @Override
@@ -301,41 +389,79 @@ public class PlaytimeRewardsModule extends RewardModule implements UserDataModul
         return UserData.class;
     }
 
-    public static class UserData extends UserDataModule.UserData {
-        private int lastCollectedPlaytime;
-        private LocalDate startDate;
-        private int previousDayEndPlaytime;
+    public static class UserData extends UserDataModule.SnapshotUserData<UserData.Snapshot> {
 
         public UserData(UUID uuid, String id, int lastCollectedPlaytime, @NotNull LocalDate startDate, int previousDayEndPlaytime) {
-            super(uuid, id);
-            this.lastCollectedPlaytime = lastCollectedPlaytime;
-            this.startDate = startDate;
-            this.previousDayEndPlaytime = previousDayEndPlaytime;
+            this(uuid, id, new Snapshot(lastCollectedPlaytime, startDate, previousDayEndPlaytime));
+        }
+
+        public UserData(UUID uuid, String id, @NotNull Snapshot snapshot) {
+            super(uuid, id, snapshot);
         }
 
         public int getLastCollectedPlaytime() {
-            return lastCollectedPlaytime;
+            return getSnapshot().lastCollectedPlaytime();
         }
 
         public void setLastCollectedPlaytime(int lastCollectedPlaytime) {
-            this.lastCollectedPlaytime = lastCollectedPlaytime;
+            update(snapshot -> snapshot.withLastCollectedPlaytime(lastCollectedPlaytime));
         }
 
         @NotNull
         public LocalDate getStartDate() {
-            return startDate;
+            return getSnapshot().startDate();
         }
 
         public void setStartDate(@NotNull LocalDate startDate) {
-            this.startDate = startDate;
+            update(snapshot -> snapshot.withStartDate(startDate));
         }
 
         public int getPreviousDayEndPlaytime() {
-            return previousDayEndPlaytime;
+            return getSnapshot().previousDayEndPlaytime();
         }
 
         public void setPreviousDayEndPlaytime(int previousDayEndPlaytime) {
-            this.previousDayEndPlaytime = previousDayEndPlaytime;
+            update(snapshot -> snapshot.withPreviousDayEndPlaytime(previousDayEndPlaytime));
+        }
+
+        /**
+         * Start counting playtime from today, playtime collected before today no longer counts towards rewards
+         */
+        public void resetStartDate() {
+            update(snapshot -> snapshot.withStartDate(LocalDate.now()).withPreviousDayEndPlaytime(snapshot.lastCollectedPlaytime()));
+        }
+
+        @Override
+        protected JsonObject toJson(Snapshot snapshot) {
+            JsonObject json = new JsonObject();
+            json.addProperty("lastCollectedPlaytime", snapshot.lastCollectedPlaytime());
+            json.addProperty("startDate", snapshot.startDate().toString());
+            json.addProperty("previousDayEndPlaytime", snapshot.previousDayEndPlaytime());
+            return json;
+        }
+
+        public static UserData fromJson(UUID uuid, String moduleId, JsonObject json) {
+            JsonElement startDate = json.get("startDate");
+            return new UserData(uuid, moduleId, new Snapshot(
+                json.has("lastCollectedPlaytime") ? json.get("lastCollectedPlaytime").getAsInt() : 0,
+                startDate != null && !startDate.isJsonNull() ? LocalDate.parse(startDate.getAsString()) : LocalDate.now(),
+                json.has("previousDayEndPlaytime") ? json.get("previousDayEndPlaytime").getAsInt() : 0
+            ));
+        }
+
+        public record Snapshot(int lastCollectedPlaytime, @NotNull LocalDate startDate, int previousDayEndPlaytime) {
+
+            public Snapshot withLastCollectedPlaytime(int lastCollectedPlaytime) {
+                return new Snapshot(lastCollectedPlaytime, startDate, previousDayEndPlaytime);
+            }
+
+            public Snapshot withStartDate(@NotNull LocalDate startDate) {
+                return new Snapshot(lastCollectedPlaytime, startDate, previousDayEndPlaytime);
+            }
+
+            public Snapshot withPreviousDayEndPlaytime(int previousDayEndPlaytime) {
+                return new Snapshot(lastCollectedPlaytime, startDate, previousDayEndPlaytime);
+            }
         }
     }
 }
@@ -0,0 +1,12 @@
+package org.lushplugins.lushrewards.module.playtimetracker;
+
+/**
+ * The player actions that can count as activity when checking whether a player is afk
+ */
+public enum ActivityType {
+    MOVE,
+    LOOK,
+    CHAT,
+    COMMAND,
+    INTERACT
+}
@@ -4,20 +4,47 @@ import org.lushplugins.lushrewards.LushRewards;
 import org.lushplugins.lushrewards.data.RewardUser;
 import org.lushplugins.lushrewards.module.RewardModule;
 import org.lushplugins.lushrewards.module.playtimerewards.PlaytimeRewardsModule;
+import org.lushplugins.lushrewards.storage.PlaytimeCounterStore;
 import org.lushplugins.lushlib.module.Module;
-import org.lushplugins.lushlib.utils.SimpleLocation;
 import org.bukkit.entity.Player;
 
+import java.time.LocalDate;
 import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+/**
+ * Counts a player's playtime, ticked by the {@link PlaytimeTrackerModule} heartbeat
+ * <p>
+ * Playtime is measured from the time that has passed between ticks, so delayed or skipped ticks are still
+ * fully counted. Whether a player is afk is worked out from the last time they were active, activity is recorded
+ * by the {@link org.lushplugins.lushrewards.listener.ActivityListener} so the player is never polled
+ * <p>
+ * Ticks only count playtime and can run on any thread, anything that needs the player such as checking permissions
+ * or claiming rewards is run on the player's own scheduler
+ */
 public class PlaytimeTracker {
-    private static final int IDLE_TIME_TO_AFK = 300;
+    private static final long IDLE_TIME_TO_AFK = TimeUnit.SECONDS.toNanos(300);
+    private static final long NANOS_PER_MINUTE = TimeUnit.MINUTES.toNanos(1);
     private final Player player;
-    private SimpleLocation lastLocation;
-    private boolean afk;
-    private int sessionTime;
-    private int idleTime;
-    private int globalTime;
+    private volatile long lastActivity;
+    // The last afk period that has ended, kept so that it is still counted as afk by the next tick
+    private volatile long endedAfkStart;
+    private volatile long endedAfkEnd;
+    private volatile long lastTick;
+    private volatile long activeTime;
+    private volatile long idleTime;
+    private volatile int countedMinutes;
+    private volatile int globalTime;
+    // Playtime rewards are only checked once the player's playtime reaches the next scheduled check. This is kept per
+    // tracker rather than in a shared schedule as each player's playtime only moves whilst they are active, the tick
+    // that counts their playtime compares against it for free
+    private volatile int nextRewardCheck;
+    private volatile LocalDate rewardCheckDate;
+    private volatile int rewardScheduleVersion;
+    private volatile int lastRewardCheck;
+    private final AtomicBoolean rewardCheckScheduled = new AtomicBoolean();
 
     public PlaytimeTracker(Player player) {
         RewardUser rewardUser = LushRewards.getInstance().getDataManager().getRewardUser(player);
@@ -26,116 +53,186 @@ public class PlaytimeTracker {
         }
 
         this.player = player;
-        this.afk = false;
-        this.sessionTime = 0;
+        this.lastActivity = System.nanoTime();
+        this.lastTick = lastActivity;
+        this.activeTime = 0;
         this.idleTime = 0;
+        this.countedMinutes = 0;
         this.globalTime = rewardUser.getMinutesPlayed();
-        updateLocation();
+        this.lastRewardCheck = globalTime;
+
+        // Recovers playtime that was counted but not saved to storage before the server stopped
+        PlaytimeCounterStore playtimeCounters = LushRewards.getInstance().getDataManager().getStorageManager().getPlaytimeCounters();
+        if (playtimeCounters != null && playtimeCounters.getMinutesPlayed(player.getUniqueId()) > globalTime) {
+            this.globalTime = playtimeCounters.getMinutesPlayed(player.getUniqueId());
+            this.lastRewardCheck = globalTime;
+            rewardUser.setMinutesPlayed(globalTime);
+        }
     }
 
+    /**
+     * Count the time that has passed since the last tick, each full minute of active time is added to the player's playtime
+     */
     public void tick() {
-        if (!player.isOnline()) {
-            Optional<Module> optionalModule = LushRewards.getInstance().getModule(RewardModule.Type.PLAYTIME_TRACKER);
-            if (optionalModule.isPresent() && optionalModule.get() instanceof PlaytimeTrackerModule playtimeTrackerModule) {
-                playtimeTrackerModule.stopPlaytimeTracker(player.getUniqueId());
-            }
+        long now = System.nanoTime();
+        long from = lastTick;
+        lastTick = now;
 
+        long elapsed = now - from;
+        long idle = 0;
+        if (!LushRewards.getInstance().getConfigManager().getPlaytimeIgnoreAfk()) {
+            idle = getOverlap(from, now, endedAfkStart, endedAfkEnd) + getOverlap(from, now, lastActivity + IDLE_TIME_TO_AFK, now);
+        }
+
+        idleTime += Math.min(idle, elapsed);
+        activeTime += elapsed - Math.min(idle, elapsed);
+
+        int activeMinutes = (int) (activeTime / NANOS_PER_MINUTE);
+        if (countedMinutes >= activeMinutes) {
             return;
         }
 
-        if (LushRewards.getInstance().getConfigManager().getPlaytimeIgnoreAfk()) {
-            whileActive();
-        } else {
-            if (hasMoved()) {
-                updateLocation();
-                whileActive();
-            } else {
-                whileInactive();
-            }
+        while (countedMinutes < activeMinutes) {
+            countedMinutes++;
+            incrementGlobalTime();
+        }
+
+        // Rechecked on a new day as playtime rewards can be reset daily
+        if (globalTime >= nextRewardCheck || !LocalDate.now().equals(rewardCheckDate) || rewardScheduleVersion != PlaytimeRewardsModule.getScheduleVersion()) {
+            scheduleRewardCheck();
+        }
+    }
+
+    /**
+     * Record that the player has been active, this is safe to call from any thread
+     */
+    public void recordActivity() {
+        long now = System.nanoTime();
+        long lastActivity = this.lastActivity;
+        if (now - lastActivity > IDLE_TIME_TO_AFK) {
+            endedAfkStart = lastActivity + IDLE_TIME_TO_AFK;
+            endedAfkEnd = now;
         }
+
+        this.lastActivity = now;
     }
 
-    public void whileActive() {
-        incrementSessionTime();
+    /**
+     * @return Whether the player has not been active for long enough to be afk
+     */
+    public boolean isAfk() {
+        return System.nanoTime() - lastActivity > IDLE_TIME_TO_AFK;
+    }
 
-        if (afk) {
-            idleTime = 0;
-            afk = false;
+    /**
+     * Updates the cached reward user so that the playtime is written with the next save, this never loads the user
+     * <p>
+     * The playtime change event is not called as this can be run whilst the plugin is disabling
+     */
+    public void saveData() {
+        RewardUser rewardUser = LushRewards.getInstance().getDataManager().getRewardUser(player);
+        if (rewardUser != null) {
+            rewardUser.trackMinutesPlayed(globalTime);
+            rewardUser.markDirty();
         }
     }
 
-    public void whileInactive() {
-        idleTime++;
+    private void incrementGlobalTime() {
+        globalTime++;
 
-        if (!afk) {
-            if (idleTime > IDLE_TIME_TO_AFK) {
-                afk = true;
+        RewardUser rewardUser = LushRewards.getInstance().getDataManager().getRewardUser(player);
+        if (rewardUser != null) {
+            if (globalTime % LushRewards.getInstance().getDataManager().getStorageManager().getPlaytimeCheckpointInterval() == 0) {
+                rewardUser.setMinutesPlayed(globalTime);
             } else {
-                incrementSessionTime();
+                rewardUser.trackMinutesPlayed(globalTime);
+            }
+        } else {
+            Optional<Module> optionalModule = LushRewards.getInstance().getModule(RewardModule.Type.PLAYTIME_TRACKER);
+            if (optionalModule.isPresent() && optionalModule.get() instanceof PlaytimeTrackerModule playtimeTrackerModule) {
+                playtimeTrackerModule.stopPlaytimeTracker(player.getUniqueId());
             }
         }
     }
 
-    public void saveData() {
-        LushRewards.getInstance().getDataManager().getOrLoadRewardUser(player.getUniqueId(), false).thenAccept(rewardUser -> rewardUser.setMinutesPlayed(globalTime));
+    /**
+     * Check the player's rewards on their own scheduler, a check that is already waiting to run covers any
+     * minutes counted before it runs
+     */
+    private void scheduleRewardCheck() {
+        if (!rewardCheckScheduled.compareAndSet(false, true)) {
+            return;
+        }
+
+        LushRewards.getMorePaperLib().scheduling().entitySpecificScheduler(player).run(() -> {
+            rewardCheckScheduled.set(false);
+            rewardCheckDate = LocalDate.now();
+            rewardScheduleVersion = PlaytimeRewardsModule.getScheduleVersion();
+            nextRewardCheck = checkRewards();
+        }, () -> rewardCheckScheduled.set(false));
     }
 
-    private void incrementSessionTime() {
-        sessionTime++;
+    /**
+     * Claim any playtime rewards that are due, must be run on the player's scheduler
+     *
+     * @return The playtime at which rewards next need to be checked
+     */
+    private int checkRewards() {
+        int globalTime = this.globalTime;
+        int lastRewardCheck = this.lastRewardCheck;
+        this.lastRewardCheck = globalTime;
 
-        if (sessionTime % 60 == 0) {
-            incrementGlobalTime();
+        if (!player.hasPermission("lushrewards.use")) {
+            // Checked again next minute in case the player is given permission
+            return globalTime + 1;
         }
-    }
 
-    private void incrementGlobalTime() {
-        globalTime++;
+        int nextRewardCheck = Integer.MAX_VALUE;
+        for (Module module : LushRewards.getInstance().getModules()) {
+            if (!(module instanceof PlaytimeRewardsModule playtimeRewardsModule) || playtimeRewardsModule.getRefreshTime() <= 0) {
+                continue;
+            }
 
-        if (player.hasPermission("lushrewards.use")) {
-            for (Module module : LushRewards.getInstance().getModules()) {
-                if (!player.hasPermission("lushrewards.use." + module.getId())) {
-                    continue;
-                }
-
-                if (module instanceof PlaytimeRewardsModule playtimeRewardsModule) {
-                    if (playtimeRewardsModule.getRefreshTime() > 0 && globalTime % playtimeRewardsModule.getRefreshTime() == 0) {
-                        playtimeRewardsModule.claimRewards(player);
-                    }
-                }
+            if (!player.hasPermission("lushrewards.use." + module.getId())) {
+                nextRewardCheck = Math.min(nextRewardCheck, globalTime + 1);
+                continue;
             }
-        }
 
-        if (globalTime % 5 == 0) {
-            RewardUser rewardUser = LushRewards.getInstance().getDataManager().getRewardUser(player);
-            if (rewardUser != null) {
-                rewardUser.setMinutesPlayed(globalTime);
-            } else {
-                Optional<Module> optionalModule = LushRewards.getInstance().getModule(RewardModule.Type.PLAYTIME_TRACKER);
-                if (optionalModule.isPresent() && optionalModule.get() instanceof PlaytimeTrackerModule playtimeTrackerModule) {
-                    playtimeTrackerModule.stopPlaytimeTracker(player.getUniqueId());
-                }
+            // Several minutes can be counted before the check runs, so any refresh since the last check is claimed
+            int refreshTime = playtimeRewardsModule.getRefreshTime();
+            if (globalTime / refreshTime > lastRewardCheck / refreshTime) {
+                playtimeRewardsModule.claimRewards(player);
             }
+
+            nextRewardCheck = Math.min(nextRewardCheck, playtimeRewardsModule.getNextRefreshPlaytime(player.getUniqueId(), globalTime));
         }
-    }
 
-    public void updateLocation() {
-        this.lastLocation = SimpleLocation.adapt(player.getLocation());
+        return nextRewardCheck;
     }
 
-    public boolean hasMoved() {
-        return !SimpleLocation.adapt(player.getLocation()).equals(lastLocation);
+    public UUID getUniqueId() {
+        return player.getUniqueId();
     }
 
+    /**
+     * @return The seconds this player has been afk during this session
+     */
     public int getIdlePlaytime() {
-        return idleTime;
+        return (int) TimeUnit.NANOSECONDS.toSeconds(idleTime);
     }
 
+    /**
+     * @return The minutes this player has been active during this session
+     */
     public int getSessionPlaytime() {
-        return (int) Math.floor(sessionTime / 60f);
+        return (int) (activeTime / NANOS_PER_MINUTE);
     }
 
+    /**
+     * @return The minutes this player has been online during this session, including time spent afk
+     */
     public int getTotalSessionPlaytime() {
-        return (int) Math.floor((sessionTime + idleTime) / 60f);
+        return (int) ((activeTime + idleTime) / NANOS_PER_MINUTE);
     }
 
     public int getGlobalPlaytime() {
@@ -144,5 +241,16 @@ public class PlaytimeTracker {
 
     public void setGlobalPlaytime(int globalPlaytime) {
         globalTime = globalPlaytime;
+        lastRewardCheck = globalPlaytime;
+        nextRewardCheck = 0;
+    }
+
+    /**
+     * @return The nanoseconds that the periods {@code [from, to)} and {@code [start, end)} have in common
+     */
+    private static long getOverlap(long from, long to, long start, long end) {
+        long overlapStart = start - from > 0 ? start : from;
+        long overlapEnd = end - to < 0 ? end : to;
+        return Math.max(overlapEnd - overlapStart, 0);
     }
 }
@@ -1,6 +1,8 @@
 package org.lushplugins.lushrewards.module.playtimetracker;
 
 import org.lushplugins.lushrewards.LushRewards;
+import org.lushplugins.lushrewards.data.DataManager;
+import org.lushplugins.lushrewards.data.PlayerSession;
 import org.lushplugins.lushrewards.module.RewardModule;
 import org.lushplugins.lushlib.module.Module;
 import org.bukkit.entity.Player;
@@ -8,21 +10,37 @@ import space.arim.morepaperlib.scheduling.ScheduledTask;
 
 import java.time.Duration;
 import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
+/**
+ * Ticks each player's playtime tracker once every heartbeat
+ * <p>
+ * Trackers are split into shards which are ticked in turn throughout the heartbeat,
+ * so that the work is spread out rather than all happening at once
+ */
 public class PlaytimeTrackerModule extends Module {
-    private ConcurrentHashMap<UUID, PlaytimeTracker> playtimeTrackers;
+    private static final int SHARD_COUNT = 20;
+
+    private final List<Set<PlaytimeTracker>> shards = new ArrayList<>();
+    private final AtomicInteger nextShard = new AtomicInteger();
     private ScheduledTask heartbeat;
 
     public PlaytimeTrackerModule() {
         super(RewardModule.Type.PLAYTIME_TRACKER);
+
+        for (int i = 0; i < SHARD_COUNT; i++) {
+            shards.add(ConcurrentHashMap.newKeySet());
+        }
     }
 
     @Override
     public void onEnable() {
-        playtimeTrackers = new ConcurrentHashMap<>();
-
+        long heartbeatInterval = LushRewards.getInstance().getConfigManager().getPlaytimeHeartbeat() * 1000L;
         heartbeat = LushRewards.getMorePaperLib().scheduling().asyncScheduler().runAtFixedRate(
             () -> {
                 if (LushRewards.getInstance().getModule(RewardModule.Type.PLAYTIME_TRACKER).isEmpty()) {
@@ -30,10 +48,10 @@ public class PlaytimeTrackerModule extends Module {
                     return;
                 }
 
-                playtimeTrackers.values().forEach(PlaytimeTracker::tick);
+                tickShard(shards.get(Math.floorMod(nextShard.getAndIncrement(), SHARD_COUNT)));
             },
             Duration.of(0, ChronoUnit.MILLIS),
-            Duration.of(1000, ChronoUnit.MILLIS)
+            Duration.of(heartbeatInterval / SHARD_COUNT, ChronoUnit.MILLIS)
         );
     }
 
@@ -44,24 +62,66 @@ public class PlaytimeTrackerModule extends Module {
             heartbeat = null;
         }
 
-        if (playtimeTrackers != null) {
-            playtimeTrackers.values().forEach(PlaytimeTracker::saveData);
-            playtimeTrackers.clear();
-            playtimeTrackers = null;
+        DataManager dataManager = LushRewards.getInstance().getDataManager();
+        if (dataManager != null) {
+            dataManager.getSessions().forEach(session -> {
+                PlaytimeTracker playtimeTracker = session.getPlaytimeTracker();
+                if (playtimeTracker != null) {
+                    playtimeTracker.saveData();
+                    session.setPlaytimeTracker(null);
+                }
+            });
+        }
+
+        shards.forEach(Set::clear);
+    }
+
+    private void tickShard(Set<PlaytimeTracker> shard) {
+        DataManager dataManager = LushRewards.getInstance().getDataManager();
+        if (dataManager == null) {
+            return;
+        }
+
+        for (PlaytimeTracker playtimeTracker : shard) {
+            // Trackers are left behind when a session is removed or given a new tracker, the player is not touched
+            // here as shards are ticked off the player's thread
+            PlayerSession session = dataManager.getSession(playtimeTracker.getUniqueId());
+            if (session == null || session.getPlaytimeTracker() != playtimeTracker) {
+                shard.remove(playtimeTracker);
+                continue;
+            }
+
+            playtimeTracker.tick();
         }
     }
 
     public PlaytimeTracker getPlaytimeTracker(UUID uuid) {
-        return playtimeTrackers.get(uuid);
+        PlayerSession session = LushRewards.getInstance().getDataManager().getSession(uuid);
+        return session != null ? session.getPlaytimeTracker() : null;
     }
 
     public void startPlaytimeTracker(Player player) {
-        playtimeTrackers.put(player.getUniqueId(), new PlaytimeTracker(player));
+        PlaytimeTracker playtimeTracker = new PlaytimeTracker(player);
+        LushRewards.getInstance().getDataManager().getOrCreateSession(player.getUniqueId()).setPlaytimeTracker(playtimeTracker);
+        getShard(player.getUniqueId()).add(playtimeTracker);
     }
 
     public PlaytimeTracker stopPlaytimeTracker(UUID uuid) {
-        PlaytimeTracker playtimeTracker = getPlaytimeTracker(uuid);
-        playtimeTrackers.remove(uuid);
+        PlayerSession session = LushRewards.getInstance().getDataManager().getSession(uuid);
+        if (session == null) {
+            return null;
+        }
+
+        PlaytimeTracker playtimeTracker = session.getPlaytimeTracker();
+        session.setPlaytimeTracker(null);
+        if (playtimeTracker != null) {
+            getShard(uuid).remove(playtimeTracker);
+        }
+
         return playtimeTracker;
     }
+
+    private Set<PlaytimeTracker> getShard(UUID uuid) {
+        return shards.get(Math.floorMod(uuid.hashCode(), SHARD_COUNT));
+    }
 }
@@ -0,0 +1,118 @@
+package org.lushplugins.lushrewards.storage;
+
+import org.lushplugins.lushrewards.LushRewards;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Stops storage operations from being attempted whilst storage is failing or responding too slowly
+ * <p>
+ * Once enough failures happen in a row the breaker opens and operations are rejected straight away,
+ * after the retry interval a single operation is let through to check whether storage has recovered
+ */
+public class CircuitBreaker {
+    private final int failureThreshold;
+    private final long latencyThresholdNanos;
+    private final long retryIntervalNanos;
+    private State state = State.CLOSED;
+    private int failures;
+    private long openedAt;
+
+    /**
+     * @param failureThreshold The number of failures in a row before the breaker opens
+     * @param latencyThresholdMs How long an operation can take before it counts as a failure
+     * @param retryIntervalMs How long the breaker stays open before storage is tried again
+     */
+    public CircuitBreaker(int failureThreshold, long latencyThresholdMs, long retryIntervalMs) {
+        this.failureThreshold = Math.max(failureThreshold, 1);
+        this.latencyThresholdNanos = latencyThresholdMs > 0 ? TimeUnit.MILLISECONDS.toNanos(latencyThresholdMs) : Long.MAX_VALUE;
+        this.retryIntervalNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(retryIntervalMs, 0));
+    }
+
+    /**
+     * Run an operation through the breaker, its outcome is recorded against the breaker
+     *
+     * @throws IllegalStateException If the breaker is not letting operations through
+     */
+    public <T> T call(Supplier<T> operation) {
+        if (!tryAcquire()) {
+            throw new IllegalStateException("Storage is unavailable, operations are paused until it recovers");
+        }
+
+        long start = System.nanoTime();
+        T result;
+        try {
+            result = operation.get();
+        } catch (RuntimeException | Error e) {
+            recordFailure();
+            throw e;
+        }
+
+        record(System.nanoTime() - start);
+        return result;
+    }
+
+    /**
+     * Every acquired operation must be followed by a call to {@link #record(long)} or {@link #recordFailure()}
+     *
+     * @return Whether an operation can be attempted
+     */
+    public synchronized boolean tryAcquire() {
+        return switch (state) {
+            case CLOSED -> true;
+            case OPEN -> {
+                if (System.nanoTime() - openedAt < retryIntervalNanos) {
+                    yield false;
+                }
+
+                // Only a single trial operation is let through until it has completed
+                state = State.HALF_OPEN;
+                yield true;
+            }
+            case HALF_OPEN -> false;
+        };
+    }
+
+    /**
+     * Record a completed operation, operations that were too slow count as failures
+     */
+    public void record(long elapsedNanos) {
+        if (elapsedNanos > latencyThresholdNanos) {
+            LushRewards.getInstance().getLogger().warning("Storage operation took " + TimeUnit.NANOSECONDS.toMillis(elapsedNanos) + "ms");
+            recordFailure();
+        } else {
+            recordSuccess();
+        }
+    }
+
+    public synchronized void recordSuccess() {
+        failures = 0;
+        if (state != State.CLOSED) {
+            state = State.CLOSED;
+            LushRewards.getInstance().getLogger().info("Storage has recovered, resuming storage operations");
+        }
+    }
+
+    public synchronized void recordFailure() {
+        if (state == State.HALF_OPEN || (state == State.CLOSED && ++failures >= failureThreshold)) {
+            if (state == State.CLOSED) {
+                LushRewards.getInstance().getLogger().severe("Storage is failing, saves will be spooled locally until it recovers");
+            }
+
+            state = State.OPEN;
+            openedAt = System.nanoTime();
+            failures = 0;
+        }
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+}
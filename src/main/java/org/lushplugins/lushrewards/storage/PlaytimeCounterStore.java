@@ -0,0 +1,175 @@
+package org.lushplugins.lushrewards.storage;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A memory mapped file of fixed-width playtime slots, updating a player's playtime is a plain memory write
+ * <p>
+ * The file starts with a header of {@code [int magic][int version][int slotCount]} followed by slots of
+ * {@code [long uuidMost][long uuidLeast][int minutesPlayed][int lastSeenEpochDay]}
+ */
+public class PlaytimeCounterStore implements Closeable {
+    private static final int MAGIC = 0x4C525043;
+    private static final int VERSION = 1;
+    private static final int SLOT_COUNT_OFFSET = Integer.BYTES * 2;
+    private static final int HEADER_SIZE = Integer.BYTES * 3;
+    private static final int SLOT_SIZE = Long.BYTES * 2 + Integer.BYTES * 2;
+    private static final int MINUTES_OFFSET = Long.BYTES * 2;
+    private static final int LAST_SEEN_OFFSET = MINUTES_OFFSET + Integer.BYTES;
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final int MAXIMUM_CAPACITY = (Integer.MAX_VALUE - HEADER_SIZE) / SLOT_SIZE;
+
+    private final FileChannel channel;
+    private final ConcurrentHashMap<UUID, Integer> slots = new ConcurrentHashMap<>();
+    private volatile MappedByteBuffer buffer;
+    private volatile boolean closed;
+    private int capacity;
+
+    private PlaytimeCounterStore(FileChannel channel) {
+        this.channel = channel;
+    }
+
+    /**
+     * @return The minutes played stored for this user, or -1 if they do not have a slot
+     */
+    public int getMinutesPlayed(UUID uuid) {
+        Integer slot = slots.get(uuid);
+        return slot != null && !closed ? buffer.getInt(getSlotPosition(slot) + MINUTES_OFFSET) : -1;
+    }
+
+    /**
+     * @return The epoch day this user's slot was last updated, or -1 if they do not have a slot
+     */
+    public int getLastSeenDay(UUID uuid) {
+        Integer slot = slots.get(uuid);
+        return slot != null && !closed ? buffer.getInt(getSlotPosition(slot) + LAST_SEEN_OFFSET) : -1;
+    }
+
+    public void setMinutesPlayed(UUID uuid, int minutesPlayed, int epochDay) {
+        if (closed) {
+            return;
+        }
+
+        Integer slot = slots.get(uuid);
+        if (slot == null) {
+            slot = allocateSlot(uuid);
+        }
+
+        int position = getSlotPosition(slot);
+        MappedByteBuffer buffer = this.buffer;
+        buffer.putInt(position + MINUTES_OFFSET, minutesPlayed);
+        buffer.putInt(position + LAST_SEEN_OFFSET, epochDay);
+    }
+
+    public int getSlotCount() {
+        return slots.size();
+    }
+
+    /**
+     * Write any modified slots to disk
+     */
+    public void force() {
+        if (!closed) {
+            buffer.force();
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+
+        buffer.force();
+        closed = true;
+        channel.close();
+    }
+
+    private synchronized int allocateSlot(UUID uuid) {
+        Integer existingSlot = slots.get(uuid);
+        if (existingSlot != null) {
+            return existingSlot;
+        }
+
+        int slot = slots.size();
+        if (slot >= capacity) {
+            if (capacity >= MAXIMUM_CAPACITY) {
+                throw new IllegalStateException("Playtime counter file has reached its maximum of " + MAXIMUM_CAPACITY + " slots");
+            }
+
+            try {
+                remap((int) Math.min((long) capacity * 2, MAXIMUM_CAPACITY));
+            } catch (IOException e) {
+                throw new IllegalStateException("Failed to grow playtime counter file", e);
+            }
+        }
+
+        int position = getSlotPosition(slot);
+        buffer.putLong(position, uuid.getMostSignificantBits());
+        buffer.putLong(position + Long.BYTES, uuid.getLeastSignificantBits());
+        buffer.putInt(position + MINUTES_OFFSET, 0);
+        buffer.putInt(position + LAST_SEEN_OFFSET, 0);
+
+        // The slot count is only raised once the slot has been written so a partially written slot is never read
+        buffer.putInt(SLOT_COUNT_OFFSET, slot + 1);
+        slots.put(uuid, slot);
+        return slot;
+    }
+
+    /**
+     * Previous mappings are left for the garbage collector, writes made through them still reach the same file
+     */
+    private void remap(int capacity) throws IOException {
+        this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, getSlotPosition(capacity));
+        this.capacity = capacity;
+    }
+
+    private static int getSlotPosition(int slot) {
+        return HEADER_SIZE + slot * SLOT_SIZE;
+    }
+
+    /**
+     * Opens an existing counter file, or creates it if it does not exist
+     */
+    public static PlaytimeCounterStore open(File file) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        PlaytimeCounterStore store = new PlaytimeCounterStore(channel);
+
+        try {
+            long size = channel.size();
+            int existingCapacity = (int) Math.min(Math.max(size - HEADER_SIZE, 0) / SLOT_SIZE, MAXIMUM_CAPACITY);
+            store.remap(Math.max(existingCapacity, INITIAL_CAPACITY));
+
+            MappedByteBuffer buffer = store.buffer;
+            if (size >= HEADER_SIZE && buffer.getInt(0) == MAGIC) {
+                if (buffer.getInt(Integer.BYTES) != VERSION) {
+                    throw new IOException("Unsupported playtime counter file version " + buffer.getInt(Integer.BYTES));
+                }
+
+                int slotCount = Math.min(buffer.getInt(SLOT_COUNT_OFFSET), existingCapacity);
+                for (int slot = 0; slot < slotCount; slot++) {
+                    int position = getSlotPosition(slot);
+                    store.slots.put(new UUID(buffer.getLong(position), buffer.getLong(position + Long.BYTES)), slot);
+                }
+            } else if (size > 0) {
+                throw new IOException("'" + file.getName() + "' is not a playtime counter file");
+            } else {
+                buffer.putInt(0, MAGIC);
+                buffer.putInt(Integer.BYTES, VERSION);
+                buffer.putInt(SLOT_COUNT_OFFSET, 0);
+            }
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+
+        return store;
+    }
+}
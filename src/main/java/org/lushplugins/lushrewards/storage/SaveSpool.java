@@ -0,0 +1,256 @@
+package org.lushplugins.lushrewards.storage;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import org.jetbrains.annotations.Nullable;
+import org.lushplugins.lushrewards.LushRewards;
+import org.lushplugins.lushrewards.module.UserDataModule;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * An append-only file of saves that could not be written to storage, kept until they can be replayed
+ * <p>
+ * Each line is a json record of {@code {"uuid", "moduleId", "data"}}, a record without data removes any earlier
+ * record for the same user data. Later records replace earlier ones when the file is read back
+ */
+public class SaveSpool implements Closeable {
+    private final File file;
+    private final ConcurrentHashMap<SpoolKey, JsonObject> spooled = new ConcurrentHashMap<>();
+    private FileChannel channel;
+
+    private SaveSpool(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Spool user data and force it to disk
+     */
+    public synchronized void append(Collection<UserDataModule.UserData> userDataList) throws IOException {
+        Map<SpoolKey, JsonObject> records = toRecords(userDataList);
+        write(records);
+        spooled.putAll(records);
+    }
+
+    /**
+     * Remove any spooled data that has been replaced by this newer data in storage
+     */
+    public void discard(Collection<UserDataModule.UserData> userDataList) throws IOException {
+        if (spooled.isEmpty()) {
+            return;
+        }
+
+        synchronized (this) {
+            Map<SpoolKey, JsonObject> records = new LinkedHashMap<>();
+            for (UserDataModule.UserData userData : userDataList) {
+                SpoolKey key = new SpoolKey(userData.getUniqueId(), userData.getModuleId());
+                if (spooled.containsKey(key)) {
+                    records.put(key, null);
+                }
+            }
+
+            if (!records.isEmpty()) {
+                write(records);
+                records.keySet().forEach(spooled::remove);
+            }
+        }
+    }
+
+    /**
+     * Mark spooled data as written to storage, the file is not rewritten until {@link #compact()}
+     */
+    public void remove(Collection<UserDataModule.UserData> userDataList) {
+        for (UserDataModule.UserData userData : userDataList) {
+            if (userData instanceof SpooledUserData spooledUserData) {
+                spooled.remove(new SpoolKey(userData.getUniqueId(), userData.getModuleId()), spooledUserData.json);
+            }
+        }
+    }
+
+    /**
+     * Rewrite the file so that it only contains data that is still spooled
+     */
+    public synchronized void compact() throws IOException {
+        if (spooled.isEmpty()) {
+            channel.truncate(0);
+            channel.force(true);
+            return;
+        }
+
+        File compacted = new File(file.getParentFile(), file.getName() + ".tmp");
+        try (FileChannel compactedChannel = FileChannel.open(compacted.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            write(compactedChannel, new HashMap<>(spooled));
+        }
+
+        channel.close();
+        Files.move(compacted.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        channel = openChannel(file);
+    }
+
+    /**
+     * @return The spooled data as json, or null if nothing is spooled
+     */
+    @Nullable
+    public JsonObject getSpooledJson(UUID uuid, @Nullable String moduleId) {
+        return spooled.get(new SpoolKey(uuid, moduleId));
+    }
+
+    /**
+     * @return All spooled data, ready to be saved to storage
+     */
+    public List<UserDataModule.UserData> getSpooledUserData() {
+        List<UserDataModule.UserData> userDataList = new ArrayList<>();
+        spooled.forEach((key, json) -> userDataList.add(new SpooledUserData(key.uuid(), key.moduleId(), json)));
+        return userDataList;
+    }
+
+    /**
+     * @param userData User data from {@link #getSpooledUserData()}
+     * @return Whether the data is still spooled, data is no longer spooled once it has been written or replaced
+     */
+    public boolean isSpooled(UserDataModule.UserData userData) {
+        return userData instanceof SpooledUserData spooledUserData
+            && spooled.get(new SpoolKey(userData.getUniqueId(), userData.getModuleId())) == spooledUserData.json;
+    }
+
+    public int getSpooledCount() {
+        return spooled.size();
+    }
+
+    public boolean isEmpty() {
+        return spooled.isEmpty();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        channel.close();
+    }
+
+    private static Map<SpoolKey, JsonObject> toRecords(Collection<UserDataModule.UserData> userDataList) {
+        Map<SpoolKey, JsonObject> records = new LinkedHashMap<>();
+        for (UserDataModule.UserData userData : userDataList) {
+            JsonObject json = userData.asJson();
+            if (json != null) {
+                records.put(new SpoolKey(userData.getUniqueId(), userData.getModuleId()), json);
+            }
+        }
+
+        return records;
+    }
+
+    private void write(Map<SpoolKey, JsonObject> records) throws IOException {
+        write(channel, records);
+    }
+
+    private static void write(FileChannel channel, Map<SpoolKey, JsonObject> records) throws IOException {
+        StringBuilder lines = new StringBuilder();
+        records.forEach((key, json) -> {
+            JsonObject record = new JsonObject();
+            record.addProperty("uuid", key.uuid().toString());
+            record.addProperty("moduleId", key.moduleId());
+            if (json != null) {
+                record.add("data", json);
+            }
+
+            lines.append(record).append('\n');
+        });
+
+        ByteBuffer buffer = ByteBuffer.wrap(lines.toString().getBytes(StandardCharsets.UTF_8));
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+
+        channel.force(false);
+    }
+
+    /**
+     * Append user data to a file in the same format without spooling it, used to keep saves that storage rejects
+     */
+    public static void appendTo(File file, Collection<UserDataModule.UserData> userDataList) throws IOException {
+        try (FileChannel channel = openChannel(file)) {
+            write(channel, toRecords(userDataList));
+        }
+    }
+
+    public static SaveSpool open(File file) throws IOException {
+        SaveSpool spool = new SaveSpool(file);
+        if (file.exists()) {
+            spool.read();
+        }
+
+        spool.channel = openChannel(file);
+
+        // Ends a record left incomplete by a crash so that it is not joined onto the next record
+        if (file.length() > 0) {
+            try (RandomAccessFile reader = new RandomAccessFile(file, "r")) {
+                reader.seek(file.length() - 1);
+                if (reader.read() != '\n') {
+                    spool.channel.write(ByteBuffer.wrap(new byte[]{'\n'}));
+                }
+            }
+        }
+
+        return spool;
+    }
+
+    private void read() throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank()) {
+                    continue;
+                }
+
+                try {
+                    JsonObject record = JsonParser.parseString(line).getAsJsonObject();
+                    JsonElement moduleId = record.get("moduleId");
+                    SpoolKey key = new SpoolKey(UUID.fromString(record.get("uuid").getAsString()), moduleId != null && !moduleId.isJsonNull() ? moduleId.getAsString() : null);
+
+                    JsonElement data = record.get("data");
+                    if (data != null && data.isJsonObject()) {
+                        spooled.put(key, data.getAsJsonObject());
+                    } else {
+                        spooled.remove(key);
+                    }
+                } catch (JsonParseException | IllegalStateException | IllegalArgumentException | NullPointerException e) {
+                    // A record can be left incomplete if the server stopped whilst it was being written
+                    LushRewards.getInstance().getLogger().warning("Skipped unreadable record in save spool: " + line);
+                }
+            }
+        }
+    }
+
+    private static FileChannel openChannel(File file) throws IOException {
+        return FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    private record SpoolKey(UUID uuid, @Nullable String moduleId) {}
+
+    private static class SpooledUserData extends UserDataModule.UserData {
+        private final JsonObject json;
+
+        public SpooledUserData(UUID uuid, String moduleId, JsonObject json) {
+            super(uuid, moduleId);
+            this.json = json;
+        }
+
+        @Override
+        public JsonObject asJson() {
+            return json;
+        }
+    }
+}
@@ -2,9 +2,12 @@ package org.lushplugins.lushrewards.storage;
 
 import com.google.gson.JsonObject;
 import org.bukkit.configuration.ConfigurationSection;
+import org.jetbrains.annotations.Nullable;
 import org.lushplugins.lushrewards.module.UserDataModule;
 
-import java.util.UUID;
+import java.util.*;
+import java.util.function.BiFunction;
+import java.util.stream.Stream;
 
 public abstract class Storage {
 
@@ -12,7 +15,127 @@ public abstract class Storage {
 
     public void disable() {}
 
+    /**
+     * Called once the storage executor has started, storage types can submit background work here so that it
+     * runs alongside the other storage operations
+     */
+    public void startTasks(StorageExecutor executor) {}
+
     public abstract JsonObject loadModuleUserDataJson(UUID uuid, String moduleId);
 
+    /**
+     * Load the user data for multiple modules at once, storage types that can load these together should override this
+     *
+     * @param moduleIds The modules to load, a null module id refers to the main user data
+     * @return The loaded data mapped by module id, data that could not be found is mapped to null
+     */
+    public Map<String, JsonObject> loadUserDataJson(UUID uuid, Collection<String> moduleIds) {
+        Map<String, JsonObject> output = new HashMap<>();
+        for (String moduleId : moduleIds) {
+            output.put(moduleId, loadModuleUserDataJson(uuid, moduleId));
+        }
+
+        return output;
+    }
+
+    /**
+     * Load the user data of multiple users at once, storage types that can load these together should override this
+     *
+     * @param moduleIds The modules to load, a null module id refers to the main user data
+     * @return The loaded data mapped by uuid and then by module id, data that could not be found is mapped to null
+     */
+    public Map<UUID, Map<String, JsonObject>> loadUserDataJson(Collection<UUID> uuids, Collection<String> moduleIds) {
+        Map<UUID, Map<String, JsonObject>> output = new HashMap<>();
+        for (UUID uuid : uuids) {
+            output.put(uuid, loadUserDataJson(uuid, moduleIds));
+        }
+
+        return output;
+    }
+
     public abstract void saveModuleUserData(UserDataModule.UserData userData);
+
+    /**
+     * Save a batch of user data, storage types that support batching should override this
+     */
+    public void saveModuleUserData(Collection<UserDataModule.UserData> userDataList) {
+        for (UserDataModule.UserData userData : userDataList) {
+            saveModuleUserData(userData);
+        }
+    }
+
+    /**
+     * List the users that have data in this storage, users are ordered by their uuid's string form
+     *
+     * @param after Only users ordered after this user are listed, or null to list from the first user
+     * @return An iterator over the users, storage types that can be paged through only load each page once it is reached
+     */
+    public abstract Iterator<UUID> loadUserIds(@Nullable UUID after);
+
+    /**
+     * Sort an unordered stream of uuid strings in a single pass, see {@link #loadUserIds(UUID)}
+     */
+    protected static Iterator<UUID> sortUserIds(Stream<String> uuids, @Nullable UUID after) {
+        String afterString = after != null ? after.toString() : "";
+        return uuids
+            .filter(uuid -> uuid.compareTo(afterString) > 0)
+            .sorted()
+            .map(UUID::fromString)
+            .toList()
+            .iterator();
+    }
+
+    /**
+     * Iterate over users that are loaded a page at a time, see {@link #loadUserIds(UUID)}
+     *
+     * @param pageLoader Loads up to the given number of users ordered after the given user
+     */
+    protected static Iterator<UUID> pageUserIds(@Nullable UUID after, int pageSize, BiFunction<UUID, Integer, List<UUID>> pageLoader) {
+        return new Iterator<>() {
+            private Iterator<UUID> page = Collections.emptyIterator();
+            private UUID last = after;
+            private boolean finished = false;
+
+            @Override
+            public boolean hasNext() {
+                if (!page.hasNext() && !finished) {
+                    List<UUID> uuids = pageLoader.apply(last, pageSize);
+                    finished = uuids.size() < pageSize;
+                    page = uuids.iterator();
+                }
+
+                return page.hasNext();
+            }
+
+            @Override
+            public UUID next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+
+                last = page.next();
+                return last;
+            }
+        };
+    }
+
+    /**
+     * Called once a user has logged out and their queued saves have been written,
+     * storage types that cache user data should release it here
+     */
+    public void unloadUser(UUID uuid) {}
+
+    /**
+     * @return The maximum number of threads that can safely access this storage at once
+     */
+    public int getMaximumThreads() {
+        return Integer.MAX_VALUE;
+    }
+
+    /**
+     * @return Live metrics for this storage, mapped from a readable label to its current value
+     */
+    public Map<String, String> getMetrics() {
+        return new LinkedHashMap<>();
+    }
 }
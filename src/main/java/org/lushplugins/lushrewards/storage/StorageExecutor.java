@@ -0,0 +1,165 @@
+package org.lushplugins.lushrewards.storage;
+
+import org.jetbrains.annotations.Nullable;
+import org.lushplugins.lushrewards.LushRewards;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.logging.Level;
+
+/**
+ * Runs storage operations across a set of single threaded lanes, operations for the same
+ * user are always routed to the same lane so that they are run in the order they were submitted
+ */
+public class StorageExecutor {
+    private final ThreadPoolExecutor[] lanes;
+    private final LongAdder completedTasks = new LongAdder();
+    private final LongAdder waitTimeNanos = new LongAdder();
+    private final AtomicLong maxWaitTimeNanos = new AtomicLong();
+    private final LongAdder rejectedTasks = new LongAdder();
+
+    public StorageExecutor(int laneCount, int queueSize) {
+        this.lanes = new ThreadPoolExecutor[Math.max(laneCount, 1)];
+
+        AtomicInteger threadId = new AtomicInteger(1);
+        ThreadFactory threadFactory = runnable -> {
+            Thread thread = new Thread(runnable, "LushRewards Storage #" + threadId.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        };
+
+        for (int i = 0; i < lanes.length; i++) {
+            lanes[i] = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(Math.max(queueSize, 1)), threadFactory);
+        }
+    }
+
+    /**
+     * @param uuid The user this operation is for, or null if it is not tied to a user
+     * @param callable The operation to run
+     * @return A future completed with the result of the operation
+     */
+    public <T> CompletableFuture<T> submit(@Nullable UUID uuid, Callable<T> callable) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        long queuedAt = System.nanoTime();
+
+        try {
+            getLane(uuid).execute(() -> {
+                recordWaitTime(System.nanoTime() - queuedAt);
+
+                try {
+                    future.complete(callable.call());
+                } catch (Throwable e) {
+                    LushRewards.getInstance().getLogger().log(Level.WARNING, "Caught unhandled storage error: ", e);
+                    future.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            rejectedTasks.increment();
+            LushRewards.getInstance().getLogger().warning("Storage queue is full or shut down, rejected operation for '" + uuid + "'");
+            future.completeExceptionally(e);
+        }
+
+        return future;
+    }
+
+    public CompletableFuture<Void> submit(@Nullable UUID uuid, Runnable runnable) {
+        return submit(uuid, () -> {
+            runnable.run();
+            return null;
+        });
+    }
+
+    /**
+     * Split items into groups that each belong to a single lane, a group can be submitted as one operation using
+     * the uuid of any of its items and will still run in order with other operations for the same users
+     *
+     * @param uuidGetter Gets the user that an item is for
+     */
+    public <T> Collection<List<T>> groupByLane(Collection<T> items, Function<T, UUID> uuidGetter) {
+        Map<ThreadPoolExecutor, List<T>> groups = new LinkedHashMap<>();
+        for (T item : items) {
+            groups.computeIfAbsent(getLane(uuidGetter.apply(item)), (ignored) -> new ArrayList<>()).add(item);
+        }
+
+        return groups.values();
+    }
+
+    public int getQueueDepth() {
+        int depth = 0;
+        for (ThreadPoolExecutor lane : lanes) {
+            depth += lane.getQueue().size() + lane.getActiveCount();
+        }
+
+        return depth;
+    }
+
+    public void putMetrics(Map<String, String> metrics) {
+        metrics.put("Storage threads", String.valueOf(lanes.length));
+        metrics.put("Storage queue depth", String.valueOf(getQueueDepth()));
+
+        long completed = completedTasks.sum();
+        if (completed > 0) {
+            metrics.put("Storage operations run", String.valueOf(completed));
+            metrics.put("Storage queue wait (avg/max)", String.format("%.2fms/%.2fms",
+                waitTimeNanos.sum() / (double) completed / 1_000_000D,
+                maxWaitTimeNanos.get() / 1_000_000D));
+        }
+
+        long rejected = rejectedTasks.sum();
+        if (rejected > 0) {
+            metrics.put("Storage operations rejected", String.valueOf(rejected));
+        }
+    }
+
+    /**
+     * Stops accepting new operations and waits for queued operations to finish
+     *
+     * @return Whether all queued operations finished before the timeout
+     */
+    public boolean shutdown(long timeout, TimeUnit unit) {
+        for (ThreadPoolExecutor lane : lanes) {
+            lane.shutdown();
+        }
+
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        try {
+            for (ThreadPoolExecutor lane : lanes) {
+                if (!lane.awaitTermination(Math.max(deadline - System.nanoTime(), 0), TimeUnit.NANOSECONDS)) {
+                    return false;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Stops all queued operations from running, operations that are already running are left to finish
+     */
+    public void shutdownNow() {
+        for (ThreadPoolExecutor lane : lanes) {
+            lane.shutdownNow();
+        }
+    }
+
+    private ThreadPoolExecutor getLane(@Nullable UUID uuid) {
+        if (uuid == null || lanes.length == 1) {
+            return lanes[0];
+        }
+
+        return lanes[Math.floorMod(uuid.hashCode(), lanes.length)];
+    }
+
+    private void recordWaitTime(long nanos) {
+        completedTasks.increment();
+        waitTimeNanos.add(nanos);
+        maxWaitTimeNanos.accumulateAndGet(nanos, Math::max);
+    }
+}
@@ -3,23 +3,53 @@ package org.lushplugins.lushrewards.storage;
 import com.google.gson.JsonObject;
 import org.bukkit.configuration.ConfigurationSection;
 import org.bukkit.configuration.file.FileConfiguration;
+import org.jetbrains.annotations.Nullable;
 import org.lushplugins.lushrewards.LushRewards;
 import org.lushplugins.lushrewards.module.UserDataModule;
 import org.lushplugins.lushrewards.storage.type.JsonStorage;
+import org.lushplugins.lushrewards.storage.type.LogStorage;
 import org.lushplugins.lushrewards.storage.type.MySQLStorage;
 import org.lushplugins.lushrewards.storage.type.PostgreSQLStorage;
 import org.lushplugins.lushrewards.storage.type.SQLiteStorage;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.UUID;
-import java.util.concurrent.Callable;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
 import java.util.logging.Level;
 
 public class StorageManager {
-    private final ExecutorService threads = Executors.newFixedThreadPool(1);
+    private static final long SPOOL_REPLAY_INTERVAL = 5000;
+    private static final String DEAD_LETTER_FILE = "save-dead-letter.log";
+
+    private final LongAdder savesSpooled = new LongAdder();
+    private final LongAdder savesReplayed = new LongAdder();
+    private final LongAdder savesDeadLettered = new LongAdder();
+    private StorageExecutor executor;
+    private WriteBehindQueue writeBehindQueue;
     private Storage storage;
+    private PlaytimeCounterStore playtimeCounters;
+    private SaveSpool saveSpool;
+    private CircuitBreaker circuitBreaker;
+    private ScheduledExecutorService spoolReplayThread;
+    private int playtimeCheckpointInterval;
+    private long shutdownTimeout = 10000;
+    private int batchSize = 500;
+    private volatile boolean closed;
 
     public StorageManager() {
         reload();
@@ -31,65 +61,614 @@ public class StorageManager {
         FileConfiguration config = LushRewards.getInstance().getConfigResource("storage.yml");
 
         String storageType = config.getString("type", "null");
-        switch (config.getString("type", "null")) {
-            case "mysql", "mariadb" -> storage = new MySQLStorage();
-            case "postgres" -> storage = new PostgreSQLStorage();
-            case "sqlite" -> storage = new SQLiteStorage();
-            case "json" -> storage = new JsonStorage();
-            default -> {
-                storage = new JsonStorage();
-                LushRewards.getInstance().getLogger().severe("'" + storageType + "' is not a valid storage type, default to json storage.");
-            }
+        storage = createStorage(storageType);
+        if (storage == null) {
+            storage = new JsonStorage();
+            LushRewards.getInstance().getLogger().severe("'" + storageType + "' is not a valid storage type, default to json storage.");
         }
 
-        boolean outdated = config.contains("mysql");
-        if (outdated) {
+        if (config.contains("mysql")) {
             LushRewards.getInstance().getLogger().warning("Deprecated: The 'mysql' section in the storage.yml has been renamed to 'storage'");
         }
 
         LushRewards.getInstance().getLogger().info("Setting up '" + storageType +"' database");
-        ConfigurationSection storageSection = outdated ? config.getConfigurationSection("mysql") : config.getConfigurationSection("storage");
-        storage.enable(storageSection);
+        storage.enable(getStorageSection(config));
+        shutdownTimeout = Math.max(Math.round(config.getDouble("shutdown-timeout", 10) * 1000), 0);
+        batchSize = Math.max(config.getInt("write-behind.batch-size", 500), 1);
+
+        int threads = Math.min(config.getInt("executor.threads", 4), storage.getMaximumThreads());
+        int queueSize = config.getInt("executor.queue-size", 10000);
+        executor = new StorageExecutor(threads, queueSize);
+        storage.startTasks(executor);
+
+        if (config.getBoolean("spool.enabled", true)) {
+            try {
+                saveSpool = SaveSpool.open(new File(LushRewards.getInstance().getDataFolder(), "save-spool.log"));
+                circuitBreaker = new CircuitBreaker(
+                    config.getInt("spool.failure-threshold", 3),
+                    config.getLong("spool.latency-threshold", 5000),
+                    Math.round(config.getDouble("spool.retry-interval", 30) * 1000));
+
+                if (!saveSpool.isEmpty()) {
+                    LushRewards.getInstance().getLogger().info("Found " + saveSpool.getSpooledCount() + " spooled saves, these will be written to storage once it is available");
+                }
+
+                spoolReplayThread = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                    Thread thread = new Thread(runnable, "LushRewards Spool Replay");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+                spoolReplayThread.scheduleWithFixedDelay(this::replaySpool, 0, SPOOL_REPLAY_INTERVAL, TimeUnit.MILLISECONDS);
+            } catch (IOException e) {
+                LushRewards.getInstance().getLogger().log(Level.SEVERE, "Failed to open save spool, saves that fail to write will be dropped: ", e);
+            }
+        }
+
+        long flushInterval = Math.round(config.getDouble("write-behind.flush-interval", 5) * 1000);
+        if (flushInterval > 0) {
+            writeBehindQueue = new WriteBehindQueue(this::writeUserData, executor, flushInterval, batchSize);
+        }
+
+        playtimeCheckpointInterval = 5;
+        if (config.getBoolean("playtime-counters.enabled", false)) {
+            try {
+                playtimeCounters = PlaytimeCounterStore.open(new File(LushRewards.getInstance().getDataFolder(), "playtime.dat"));
+                playtimeCheckpointInterval = Math.max(config.getInt("playtime-counters.checkpoint-interval", 15), 1);
+            } catch (IOException e) {
+                LushRewards.getInstance().getLogger().log(Level.SEVERE, "Failed to open playtime counters, playtime will be saved straight to storage: ", e);
+            }
+        }
+
+        closed = false;
     }
 
     public void disable() {
+        shutdown(Collections.emptyList());
+    }
+
+    /**
+     * Stops accepting new work, then writes all queued saves and the final saves in batches.
+     * Saves that cannot be written within the shutdown timeout are dropped
+     *
+     * @param finalSaves User data to save before storage is closed
+     */
+    public void shutdown(Collection<UserDataModule.UserData> finalSaves) {
+        closed = true;
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(shutdownTimeout);
+
+        if (spoolReplayThread != null) {
+            spoolReplayThread.shutdown();
+            try {
+                if (!spoolReplayThread.awaitTermination(Math.max(deadline - System.nanoTime(), 0), TimeUnit.NANOSECONDS)) {
+                    spoolReplayThread.shutdownNow();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+
+            spoolReplayThread = null;
+        }
+
+        int flushed = 0;
+        int dropped = 0;
+        Map<CompletableFuture<Boolean>, Integer> batches = new LinkedHashMap<>();
+        if (writeBehindQueue != null) {
+            batches.putAll(writeBehindQueue.shutdown(finalSaves, deadline));
+            writeBehindQueue = null;
+        } else if (executor != null) {
+            // Queued on each user's own lane behind any saves that are already waiting so that older data never overwrites these saves
+            for (List<UserDataModule.UserData> laneSaves : executor.groupByLane(finalSaves, UserDataModule.UserData::getUniqueId)) {
+                for (int start = 0; start < laneSaves.size(); start += batchSize) {
+                    List<UserDataModule.UserData> batch = laneSaves.subList(start, Math.min(start + batchSize, laneSaves.size()));
+                    batches.put(executor.submit(batch.get(0).getUniqueId(), () -> {
+                        writeUserData(batch);
+                        return true;
+                    }), batch.size());
+                }
+            }
+        } else {
+            dropped += finalSaves.size();
+        }
+
+        if (executor != null) {
+            if (!executor.shutdown(Math.max(deadline - System.nanoTime(), 0), TimeUnit.NANOSECONDS)) {
+                LushRewards.getInstance().getLogger().warning("Timed out whilst waiting for queued storage operations to finish");
+                executor.shutdownNow();
+            }
+
+            executor = null;
+        }
+
+        for (Map.Entry<CompletableFuture<Boolean>, Integer> batch : batches.entrySet()) {
+            if (batch.getKey().isDone() && !batch.getKey().isCompletedExceptionally() && batch.getKey().join()) {
+                flushed += batch.getValue();
+            } else {
+                dropped += batch.getValue();
+            }
+        }
+
+        if (flushed > 0 || dropped > 0) {
+            LushRewards.getInstance().getLogger().info("Flushed " + flushed + " records to storage");
+        }
+
+        if (dropped > 0) {
+            LushRewards.getInstance().getLogger().severe("Dropped " + dropped + " records that could not be written within " + shutdownTimeout + "ms");
+        }
+
+        // Closed after saving so that saves which failed to write can still be spooled
+        if (saveSpool != null) {
+            if (!saveSpool.isEmpty()) {
+                LushRewards.getInstance().getLogger().warning(saveSpool.getSpooledCount() + " spooled saves will be written to storage once it is available");
+            }
+
+            try {
+                saveSpool.close();
+            } catch (IOException e) {
+                LushRewards.getInstance().getLogger().log(Level.SEVERE, "Failed to close save spool: ", e);
+            }
+
+            saveSpool = null;
+            circuitBreaker = null;
+        }
+
+        // Closed after saving so that playtime which failed to save can still be recovered
+        if (playtimeCounters != null) {
+            try {
+                playtimeCounters.close();
+            } catch (IOException e) {
+                LushRewards.getInstance().getLogger().log(Level.SEVERE, "Failed to close playtime counters: ", e);
+            }
+
+            playtimeCounters = null;
+        }
+
         if (storage != null) {
-            runAsync(storage::disable);
+            storage.disable();
+            storage = null;
+        }
+    }
+
+    /**
+     * @return The storage that user data is currently being saved to
+     */
+    public Storage getStorage() {
+        return storage;
+    }
+
+    public Map<String, String> getMetrics() {
+        Map<String, String> metrics = storage.getMetrics();
+        executor.putMetrics(metrics);
+        if (writeBehindQueue != null) {
+            writeBehindQueue.putMetrics(metrics);
         }
+
+        if (saveSpool != null) {
+            metrics.put("Circuit breaker", circuitBreaker.getState().name().toLowerCase());
+            metrics.put("Spooled saves", String.valueOf(saveSpool.getSpooledCount()));
+
+            long spooled = savesSpooled.sum();
+            if (spooled > 0) {
+                metrics.put("Saves spooled/replayed", spooled + "/" + savesReplayed.sum());
+            }
+
+            long deadLettered = savesDeadLettered.sum();
+            if (deadLettered > 0) {
+                metrics.put("Saves dead-lettered", String.valueOf(deadLettered));
+            }
+        }
+
+        if (playtimeCounters != null) {
+            metrics.put("Playtime counters", String.valueOf(playtimeCounters.getSlotCount()));
+        }
+
+        return metrics;
+    }
+
+    /**
+     * @return The memory mapped playtime counters, or null if they are disabled
+     */
+    public PlaytimeCounterStore getPlaytimeCounters() {
+        return playtimeCounters;
+    }
+
+    /**
+     * @return How often in minutes tracked playtime should be saved to storage
+     */
+    public int getPlaytimeCheckpointInterval() {
+        return playtimeCheckpointInterval;
     }
 
     public CompletableFuture<JsonObject> loadModuleUserData(UUID uuid, String moduleId) {
-        return runAsync(() -> storage.loadModuleUserDataJson(uuid, moduleId));
+        if (closed) {
+            return closedFuture();
+        }
+
+        JsonObject unwrittenJson = getUnwrittenJson(uuid, moduleId);
+        if (unwrittenJson != null) {
+            return CompletableFuture.completedFuture(unwrittenJson);
+        }
+
+        return executor.submit(uuid, () -> load(() -> storage.loadModuleUserDataJson(uuid, moduleId)));
+    }
+
+    /**
+     * Load the user data for multiple modules in a single storage request
+     *
+     * @param moduleIds The modules to load, a null module id refers to the main user data
+     */
+    public CompletableFuture<Map<String, JsonObject>> loadUserData(UUID uuid, Collection<String> moduleIds) {
+        if (closed) {
+            return closedFuture();
+        }
+
+        return executor.submit(uuid, () -> {
+            Map<String, JsonObject> unwrittenJsonMap = new HashMap<>();
+            for (String moduleId : moduleIds) {
+                JsonObject unwrittenJson = getUnwrittenJson(uuid, moduleId);
+                if (unwrittenJson != null) {
+                    unwrittenJsonMap.put(moduleId, unwrittenJson);
+                }
+            }
+
+            // Storage is not needed when all the data is still waiting to be written
+            if (unwrittenJsonMap.size() == moduleIds.size()) {
+                return unwrittenJsonMap;
+            }
+
+            Map<String, JsonObject> jsonMap = load(() -> storage.loadUserDataJson(uuid, moduleIds));
+            jsonMap.putAll(unwrittenJsonMap);
+            return jsonMap;
+        });
+    }
+
+    /**
+     * Load the user data of multiple users, users are loaded in a single storage request for each executor lane so
+     * that each load still runs in order with the saves for those users
+     *
+     * @param moduleIds The modules to load, a null module id refers to the main user data
+     */
+    public CompletableFuture<Map<UUID, Map<String, JsonObject>>> loadUserData(Collection<UUID> uuids, Collection<String> moduleIds) {
+        if (closed) {
+            return closedFuture();
+        }
+
+        List<CompletableFuture<Map<UUID, Map<String, JsonObject>>>> futures = new ArrayList<>();
+        for (List<UUID> laneUuids : executor.groupByLane(uuids, uuid -> uuid)) {
+            futures.add(executor.submit(laneUuids.get(0), () -> {
+                Map<UUID, Map<String, JsonObject>> jsonMaps = load(() -> storage.loadUserDataJson(laneUuids, moduleIds));
+
+                jsonMaps.forEach((uuid, jsonMap) -> {
+                    for (String moduleId : moduleIds) {
+                        JsonObject unwrittenJson = getUnwrittenJson(uuid, moduleId);
+                        if (unwrittenJson != null) {
+                            jsonMap.put(moduleId, unwrittenJson);
+                        }
+                    }
+                });
+
+                return jsonMaps;
+            }));
+        }
+
+        return CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new)).thenApply((ignored) -> {
+            Map<UUID, Map<String, JsonObject>> jsonMaps = new HashMap<>();
+            futures.forEach(future -> jsonMaps.putAll(future.join()));
+            return jsonMaps;
+        });
     }
 
     public CompletableFuture<Void> saveModuleUserData(UserDataModule.UserData userData) {
-        return runAsync(() -> storage.saveModuleUserData(userData));
+        return saveModuleUserData(userData, false);
+    }
+
+    /**
+     * @param flush Whether queued saves should be written straight away rather than on the next flush interval
+     */
+    public CompletableFuture<Void> saveModuleUserData(UserDataModule.UserData userData, boolean flush) {
+        if (closed) {
+            return closedFuture();
+        }
+
+        if (writeBehindQueue == null) {
+            return executor.submit(userData.getUniqueId(), () -> writeUserData(List.of(userData)));
+        }
+
+        CompletableFuture<Void> future = writeBehindQueue.save(userData);
+        if (flush) {
+            writeBehindQueue.requestFlush(userData.getUniqueId());
+        }
+
+        return future;
+    }
+
+    /**
+     * Write all queued saves for a user as soon as possible
+     */
+    public CompletableFuture<Void> flush(UUID uuid) {
+        return writeBehindQueue != null ? writeBehindQueue.requestFlush(uuid) : CompletableFuture.completedFuture(null);
+    }
+
+    /**
+     * Write all queued saves for a user and then release anything the storage has cached for them
+     */
+    public CompletableFuture<Void> unloadUser(UUID uuid) {
+        if (closed) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        return flush(uuid).thenCompose((ignored) -> executor.submit(uuid, () -> storage.unloadUser(uuid)));
+    }
+
+    /**
+     * Write all queued saves as soon as possible
+     */
+    public CompletableFuture<Void> flush() {
+        return writeBehindQueue != null ? writeBehindQueue.requestFlush() : CompletableFuture.completedFuture(null);
+    }
+
+    /**
+     * Get the latest data that has not yet been written to storage, queued saves are newer than spooled saves
+     * which are both newer than the data currently in storage
+     *
+     * @return The unwritten data as json, or null if there is none
+     */
+    @Nullable
+    private JsonObject getUnwrittenJson(UUID uuid, @Nullable String moduleId) {
+        if (writeBehindQueue != null) {
+            JsonObject queuedJson = writeBehindQueue.getQueuedJson(uuid, moduleId);
+            if (queuedJson != null) {
+                return queuedJson;
+            }
+        }
+
+        SaveSpool saveSpool = this.saveSpool;
+        return saveSpool != null ? saveSpool.getSpooledJson(uuid, moduleId) : null;
+    }
+
+    /**
+     * Run a load through the circuit breaker so that loads fail straight away whilst storage is failing
+     */
+    private <T> T load(Supplier<T> loader) {
+        CircuitBreaker circuitBreaker = this.circuitBreaker;
+        return circuitBreaker != null ? circuitBreaker.call(loader) : loader.get();
+    }
+
+    /**
+     * Write a batch of saves to storage, saves are spooled locally instead if storage is failing
+     * or the write fails. Saves that storage rejects whilst the rest of the batch is written are dead-lettered
+     */
+    private void writeUserData(List<UserDataModule.UserData> batch) {
+        SaveSpool saveSpool = this.saveSpool;
+        CircuitBreaker circuitBreaker = this.circuitBreaker;
+        if (saveSpool == null) {
+            WriteResult result = write(batch);
+            if (!result.failed().isEmpty()) {
+                throw new IllegalStateException("Failed to write " + result.failed().size() + " of " + batch.size() + " saves");
+            }
+
+            return;
+        }
+
+        try {
+            if (circuitBreaker.tryAcquire()) {
+                long start = System.nanoTime();
+                WriteResult result = write(batch);
+                if (!result.written().isEmpty()) {
+                    record(circuitBreaker, result, System.nanoTime() - start);
+
+                    List<UserDataModule.UserData> replaced = batch;
+                    if (!result.failed().isEmpty() && !deadLetter(result.failed())) {
+                        saveSpool.append(result.failed());
+                        savesSpooled.add(result.failed().size());
+                        replaced = result.written();
+                    }
+
+                    discardSpooled(saveSpool, replaced);
+                    return;
+                }
+
+                circuitBreaker.recordFailure();
+                LushRewards.getInstance().getLogger().warning("Failed to write " + batch.size() + " saves, spooling them locally");
+            }
+
+            saveSpool.append(batch);
+            savesSpooled.add(batch.size());
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to spool saves", e);
+        }
     }
 
-    private <T> CompletableFuture<T> runAsync(Callable<T> callable) {
-        CompletableFuture<T> future = new CompletableFuture<>();
-        threads.submit(() -> {
+    /**
+     * Write a batch of saves to storage, if the batch fails then its saves are retried one at a time so that
+     * a single save that storage rejects does not stop the rest of the batch from being written
+     */
+    private WriteResult write(List<UserDataModule.UserData> batch) {
+        try {
+            storage.saveModuleUserData(batch);
+            return new WriteResult(batch, Collections.emptyList());
+        } catch (RuntimeException e) {
+            LushRewards.getInstance().getLogger().log(Level.WARNING, "Failed to write batch of " + batch.size() + " saves: ", e);
+            if (batch.size() == 1) {
+                return new WriteResult(Collections.emptyList(), batch);
+            }
+        }
+
+        List<UserDataModule.UserData> written = new ArrayList<>();
+        List<UserDataModule.UserData> failed = new ArrayList<>();
+        for (int i = 0; i < batch.size(); i++) {
+            // Storage is most likely unavailable rather than rejecting individual saves
+            if (written.isEmpty() && failed.size() >= 2) {
+                failed.addAll(batch.subList(i, batch.size()));
+                break;
+            }
+
+            UserDataModule.UserData userData = batch.get(i);
             try {
-                future.complete(callable.call());
-            } catch (Throwable e) {
-                LushRewards.getInstance().getLogger().log(Level.WARNING, "Caught unhandled storage error: ", e);
-                future.completeExceptionally(e);
+                storage.saveModuleUserData(List.of(userData));
+                written.add(userData);
+            } catch (RuntimeException e) {
+                LushRewards.getInstance().getLogger().log(Level.WARNING, "Failed to write save for '" + userData.getUniqueId() + "' (" + userData.getModuleId() + "): ", e);
+                failed.add(userData);
             }
-        });
-        return future;
+        }
+
+        return new WriteResult(written, failed);
+    }
+
+    /**
+     * Record a write that reached storage against the circuit breaker
+     */
+    private static void record(CircuitBreaker circuitBreaker, WriteResult result, long elapsedNanos) {
+        if (result.failed().isEmpty()) {
+            circuitBreaker.record(elapsedNanos);
+        } else {
+            // Time spent retrying saves one at a time does not reflect how quickly storage is responding
+            circuitBreaker.recordSuccess();
+        }
+    }
+
+    /**
+     * Keep saves that storage rejected in a separate file, they are never retried
+     *
+     * @return Whether the saves were kept
+     */
+    private boolean deadLetter(List<UserDataModule.UserData> rejected) {
+        try {
+            SaveSpool.appendTo(new File(LushRewards.getInstance().getDataFolder(), DEAD_LETTER_FILE), rejected);
+        } catch (IOException e) {
+            LushRewards.getInstance().getLogger().log(Level.SEVERE, "Failed to write rejected saves to " + DEAD_LETTER_FILE + ": ", e);
+            return false;
+        }
+
+        savesDeadLettered.add(rejected.size());
+        LushRewards.getInstance().getLogger().severe("Storage rejected " + rejected.size() + " saves, these have been moved to " + DEAD_LETTER_FILE);
+        return true;
+    }
+
+    private void discardSpooled(SaveSpool saveSpool, List<UserDataModule.UserData> batch) {
+        try {
+            saveSpool.discard(batch);
+        } catch (IOException e) {
+            LushRewards.getInstance().getLogger().log(Level.SEVERE, "Failed to remove replaced saves from the save spool: ", e);
+        }
     }
 
-    private CompletableFuture<Void> runAsync(Runnable runnable) {
-        CompletableFuture<Void> future = new CompletableFuture<>();
-        threads.submit(() -> {
+    /**
+     * Write spooled saves to storage in batches once storage is available
+     * <p>
+     * Each user's spooled saves are replayed on their own executor lane, so they run in order with
+     * that user's live saves and are never written over a newer save
+     */
+    private void replaySpool() {
+        SaveSpool saveSpool = this.saveSpool;
+        CircuitBreaker circuitBreaker = this.circuitBreaker;
+        StorageExecutor executor = this.executor;
+        if (saveSpool == null || saveSpool.isEmpty() || executor == null) {
+            return;
+        }
+
+        List<CompletableFuture<ReplayResult>> lanes = new ArrayList<>();
+        for (List<UserDataModule.UserData> laneSaves : executor.groupByLane(saveSpool.getSpooledUserData(), UserDataModule.UserData::getUniqueId)) {
+            lanes.add(executor.submit(laneSaves.get(0).getUniqueId(), () -> replaySpool(saveSpool, circuitBreaker, laneSaves)));
+        }
+
+        // Waits for the replay to finish so that the same saves are never queued to be replayed twice
+        int replayed = 0;
+        int removed = 0;
+        try {
+            CompletableFuture.allOf(lanes.toArray(CompletableFuture[]::new)).get();
+            for (CompletableFuture<ReplayResult> lane : lanes) {
+                replayed += lane.join().replayed();
+                removed += lane.join().removed();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        } catch (ExecutionException e) {
+            LushRewards.getInstance().getLogger().log(Level.SEVERE, "Failed to replay spooled saves: ", e.getCause());
+        }
+
+        if (replayed > 0) {
+            savesReplayed.add(replayed);
+            LushRewards.getInstance().getLogger().info("Replayed " + replayed + " spooled saves to storage");
+        }
+
+        if (replayed > 0 || removed > 0) {
             try {
-                runnable.run();
-                future.complete(null);
-            } catch (Throwable e) {
-                LushRewards.getInstance().getLogger().log(Level.WARNING, "Caught unhandled storage error: ", e);
-                future.completeExceptionally(e);
+                saveSpool.compact();
+            } catch (IOException e) {
+                LushRewards.getInstance().getLogger().log(Level.SEVERE, "Failed to compact save spool: ", e);
             }
-        });
-        return future;
+        }
+    }
+
+    /**
+     * Write one lane's spooled saves to storage, called on that lane
+     */
+    private ReplayResult replaySpool(SaveSpool saveSpool, CircuitBreaker circuitBreaker, List<UserDataModule.UserData> laneSaves) {
+        // Saves written since the spool was read have replaced the spooled data
+        List<UserDataModule.UserData> spooled = laneSaves.stream().filter(saveSpool::isSpooled).toList();
+        int replayed = 0;
+        int removed = 0;
+        for (int start = 0; start < spooled.size(); start += batchSize) {
+            if (!circuitBreaker.tryAcquire()) {
+                break;
+            }
+
+            List<UserDataModule.UserData> batch = spooled.subList(start, Math.min(start + batchSize, spooled.size()));
+            long startTime = System.nanoTime();
+            WriteResult result = write(batch);
+            if (result.written().isEmpty()) {
+                circuitBreaker.recordFailure();
+                LushRewards.getInstance().getLogger().warning("Failed to replay spooled saves");
+                break;
+            }
+
+            record(circuitBreaker, result, System.nanoTime() - startTime);
+            saveSpool.remove(result.written());
+            replayed += result.written().size();
+
+            // Saves that storage rejects whilst others are written would otherwise be replayed forever
+            if (!result.failed().isEmpty() && deadLetter(result.failed())) {
+                saveSpool.remove(result.failed());
+                removed += result.failed().size();
+            }
+        }
+
+        return new ReplayResult(replayed, removed);
+    }
+
+    /**
+     * @param written The saves that were written to storage
+     * @param failed The saves that could not be written
+     */
+    private record WriteResult(List<UserDataModule.UserData> written, List<UserDataModule.UserData> failed) {}
+
+    /**
+     * @param replayed The number of spooled saves that were written to storage
+     * @param removed The number of spooled saves that were dead-lettered
+     */
+    private record ReplayResult(int replayed, int removed) {}
+
+    private static <T> CompletableFuture<T> closedFuture() {
+        return CompletableFuture.failedFuture(new IllegalStateException("Storage has been shut down"));
+    }
+
+    /**
+     * @return A new storage of this type that has not yet been enabled, or null if the type is not valid
+     */
+    public static Storage createStorage(String type) {
+        return switch (type.toLowerCase()) {
+            case "mysql", "mariadb" -> new MySQLStorage();
+            case "postgres" -> new PostgreSQLStorage();
+            case "sqlite" -> new SQLiteStorage();
+            case "json" -> new JsonStorage();
+            case "log" -> new LogStorage();
+            default -> null;
+        };
+    }
+
+    public static ConfigurationSection getStorageSection(FileConfiguration config) {
+        return config.contains("mysql") ? config.getConfigurationSection("mysql") : config.getConfigurationSection("storage");
     }
 }
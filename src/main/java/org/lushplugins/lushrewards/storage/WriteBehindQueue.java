@@ -0,0 +1,246 @@
+package org.lushplugins.lushrewards.storage;
+
+import com.google.gson.JsonObject;
+import org.jetbrains.annotations.Nullable;
+import org.lushplugins.lushrewards.LushRewards;
+import org.lushplugins.lushrewards.module.UserDataModule;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.logging.Level;
+
+/**
+ * Buffers saves so that repeated saves of the same user data are merged and
+ * then written to storage together in batches
+ * <p>
+ * Batches are written on the storage executor's lanes so that they stay in order with
+ * other storage operations for the same users
+ */
+public class WriteBehindQueue {
+    private final Consumer<List<UserDataModule.UserData>> writer;
+    private final StorageExecutor executor;
+    private final int batchSize;
+    private final ConcurrentHashMap<SaveKey, PendingSave> pending = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<SaveKey, PendingSave> flushing = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService flushThread;
+    private final LongAdder savesRequested = new LongAdder();
+    private final LongAdder savesWritten = new LongAdder();
+    private final LongAdder batchesWritten = new LongAdder();
+
+    /**
+     * @param writer Writes a batch of saves to storage, throwing if the batch could not be written
+     * @param executor The executor that batches are written on
+     */
+    public WriteBehindQueue(Consumer<List<UserDataModule.UserData>> writer, StorageExecutor executor, long flushIntervalMs, int batchSize) {
+        this.writer = writer;
+        this.executor = executor;
+        this.batchSize = Math.max(batchSize, 1);
+        this.flushThread = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "LushRewards Storage Flush");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        flushThread.scheduleWithFixedDelay(this::flushAll, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Queues user data to be saved, if a save is already queued for the same data then the two are merged
+     *
+     * @return A future completed once the data has been written to storage
+     */
+    public CompletableFuture<Void> save(UserDataModule.UserData userData) {
+        savesRequested.increment();
+
+        SaveKey key = new SaveKey(userData.getUniqueId(), userData.getModuleId());
+        PendingSave pendingSave = pending.compute(key, (ignored, current) -> {
+            if (current == null) {
+                return new PendingSave(userData, new CompletableFuture<>());
+            }
+
+            current.userData = userData;
+            return current;
+        });
+
+        return pendingSave.future;
+    }
+
+    /**
+     * Get the latest queued data that has not yet been written to storage
+     *
+     * @return The queued data as json, or null if nothing is queued
+     */
+    @Nullable
+    public JsonObject getQueuedJson(UUID uuid, @Nullable String moduleId) {
+        SaveKey key = new SaveKey(uuid, moduleId);
+        PendingSave pendingSave = pending.get(key);
+        if (pendingSave == null) {
+            pendingSave = flushing.get(key);
+        }
+
+        return pendingSave != null ? pendingSave.userData.asJson() : null;
+    }
+
+    /**
+     * Request that all queued saves are written as soon as possible
+     */
+    public CompletableFuture<Void> requestFlush() {
+        return flush(drain(key -> true));
+    }
+
+    /**
+     * Request that all queued saves for a user are written as soon as possible
+     */
+    public CompletableFuture<Void> requestFlush(UUID uuid) {
+        return flush(drain(key -> key.uuid().equals(uuid)));
+    }
+
+    /**
+     * Stop scheduled flushes, then queue all remaining saves to be written in batches behind any
+     * operations that are already queued. Batches that have not been started by the deadline are dropped
+     *
+     * @param finalSaves Saves to merge into the queue before it is written
+     * @param deadline The {@link System#nanoTime()} by which writing must finish
+     * @return The batches that were queued, each mapped to its number of saves and completed with whether it was written
+     */
+    public Map<CompletableFuture<Boolean>, Integer> shutdown(Collection<UserDataModule.UserData> finalSaves, long deadline) {
+        flushThread.shutdown();
+        try {
+            if (!flushThread.awaitTermination(Math.max(deadline - System.nanoTime(), 0), TimeUnit.NANOSECONDS)) {
+                LushRewards.getInstance().getLogger().warning("Timed out whilst waiting for storage flush to finish");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        finalSaves.forEach(this::save);
+
+        return submit(drain(key -> true), batch -> {
+            if (System.nanoTime() - deadline >= 0) {
+                complete(batch, new TimeoutException("Storage shutdown deadline passed"));
+                return false;
+            }
+
+            return write(batch);
+        });
+    }
+
+    public int getQueuedCount() {
+        return pending.size();
+    }
+
+    public void putMetrics(Map<String, String> metrics) {
+        metrics.put("Queued saves", String.valueOf(getQueuedCount()));
+
+        long requested = savesRequested.sum();
+        long written = savesWritten.sum();
+        if (requested > 0) {
+            metrics.put("Saves requested/written", requested + "/" + written);
+            metrics.put("Save batches written", String.valueOf(batchesWritten.sum()));
+        }
+    }
+
+    private void flushAll() {
+        flush(drain(key -> true));
+    }
+
+    private List<PendingSave> drain(Predicate<SaveKey> filter) {
+        List<PendingSave> drained = new ArrayList<>();
+        for (SaveKey key : pending.keySet()) {
+            if (!filter.test(key)) {
+                continue;
+            }
+
+            PendingSave pendingSave = pending.get(key);
+            if (pendingSave == null) {
+                continue;
+            }
+
+            // Added to flushing before it is removed from pending so that the save can always be found by a load
+            flushing.put(key, pendingSave);
+            if (pending.remove(key, pendingSave)) {
+                drained.add(pendingSave);
+            }
+        }
+
+        return drained;
+    }
+
+    private CompletableFuture<Void> flush(List<PendingSave> saves) {
+        return CompletableFuture.allOf(submit(saves, this::write).keySet().toArray(CompletableFuture[]::new));
+    }
+
+    /**
+     * Queue saves to be written in batches, each batch only holds saves from a single lane of the executor
+     *
+     * @return The batches that were queued, each mapped to its number of saves and completed with whether it was written
+     */
+    private Map<CompletableFuture<Boolean>, Integer> submit(List<PendingSave> saves, Function<List<PendingSave>, Boolean> batchWriter) {
+        Map<CompletableFuture<Boolean>, Integer> batches = new LinkedHashMap<>();
+        for (List<PendingSave> laneSaves : executor.groupByLane(saves, pendingSave -> pendingSave.userData.getUniqueId())) {
+            for (int start = 0; start < laneSaves.size(); start += batchSize) {
+                List<PendingSave> batch = laneSaves.subList(start, Math.min(start + batchSize, laneSaves.size()));
+                CompletableFuture<Boolean> future = executor.submit(batch.get(0).userData.getUniqueId(), () -> batchWriter.apply(batch));
+
+                // Completes the saves if the batch was rejected by the executor
+                future.whenComplete((ignored, e) -> {
+                    if (e != null) {
+                        complete(batch, e);
+                    }
+                });
+
+                batches.put(future, batch.size());
+            }
+        }
+
+        return batches;
+    }
+
+    /**
+     * @return Whether the batch was written
+     */
+    private boolean write(List<PendingSave> batch) {
+        List<UserDataModule.UserData> userDataList = batch.stream().map(pendingSave -> pendingSave.userData).toList();
+
+        Throwable exception = null;
+        try {
+            writer.accept(userDataList);
+            savesWritten.add(batch.size());
+            batchesWritten.increment();
+        } catch (Throwable e) {
+            LushRewards.getInstance().getLogger().log(Level.SEVERE, "Failed to write batch of " + batch.size() + " saves: ", e);
+            exception = e;
+        }
+
+        complete(batch, exception);
+        return exception == null;
+    }
+
+    private void complete(List<PendingSave> batch, @Nullable Throwable exception) {
+        for (PendingSave pendingSave : batch) {
+            flushing.remove(new SaveKey(pendingSave.userData.getUniqueId(), pendingSave.userData.getModuleId()), pendingSave);
+
+            if (exception == null) {
+                pendingSave.future.complete(null);
+            } else {
+                pendingSave.future.completeExceptionally(exception);
+            }
+        }
+    }
+
+    private record SaveKey(UUID uuid, @Nullable String moduleId) {}
+
+    private static class PendingSave {
+        private volatile UserDataModule.UserData userData;
+        private final CompletableFuture<Void> future;
+
+        private PendingSave(UserDataModule.UserData userData, CompletableFuture<Void> future) {
+            this.userData = userData;
+            this.future = future;
+        }
+    }
+}
@@ -1,14 +1,8 @@
 package org.lushplugins.lushrewards.storage.migrator;
 
-// TODO: Create and implement migrator
-public class JsonToMySQL extends Migrator {
+public class JsonToMySQL extends StorageMigrator {
 
-    public JsonToMySQL(String name) {
-        super(name);
-    }
-
-    @Override
-    public boolean convert() {
-        return false;
+    public JsonToMySQL() {
+        super("json", "mysql");
     }
 }
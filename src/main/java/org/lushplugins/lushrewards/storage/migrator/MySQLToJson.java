@@ -1,14 +1,8 @@
 package org.lushplugins.lushrewards.storage.migrator;
 
-// TODO: Create and implement migrator
-public class MySQLToJson extends Migrator {
+public class MySQLToJson extends StorageMigrator {
 
-    public MySQLToJson(String name) {
-        super(name);
-    }
-
-    @Override
-    public boolean convert() {
-        return false;
+    public MySQLToJson() {
+        super("mysql", "json");
     }
 }
@@ -0,0 +1,219 @@
+package org.lushplugins.lushrewards.storage.migrator;
+
+import com.google.gson.JsonObject;
+import org.bukkit.configuration.file.FileConfiguration;
+import org.lushplugins.lushlib.module.Module;
+import org.lushplugins.lushrewards.LushRewards;
+import org.lushplugins.lushrewards.data.DataManager;
+import org.lushplugins.lushrewards.module.UserDataModule;
+import org.lushplugins.lushrewards.storage.Storage;
+import org.lushplugins.lushrewards.storage.StorageManager;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+
+/**
+ * Copies all user data from one storage type to another
+ * <p>
+ * Users are migrated in pages, each page is loaded in parallel and then written to the target storage as a single batch.
+ * The last migrated user is written to a checkpoint file after each page so that an interrupted migration can be resumed
+ */
+public class StorageMigrator extends Migrator {
+    private static final int PAGE_SIZE = 500;
+
+    private final String sourceType;
+    private final String targetType;
+    private final File checkpointFile;
+
+    public StorageMigrator(String sourceType, String targetType) {
+        super(sourceType + "To" + targetType);
+        this.sourceType = sourceType.toLowerCase();
+        this.targetType = targetType.toLowerCase();
+        this.checkpointFile = new File(LushRewards.getInstance().getDataFolder(), "migration-" + this.sourceType + "-to-" + this.targetType + ".checkpoint");
+    }
+
+    @Override
+    public boolean convert() {
+        Storage sourceStorage = StorageManager.createStorage(sourceType);
+        Storage targetStorage = StorageManager.createStorage(targetType);
+        if (sourceStorage != null && targetStorage != null && sourceStorage.getClass() == targetStorage.getClass()) {
+            LushRewards.getInstance().getLogger().severe("Cannot migrate from '" + sourceType + "' to the same storage type");
+            return false;
+        }
+
+        FileConfiguration config = LushRewards.getInstance().getConfigResource("storage.yml");
+        Storage source = openStorage(sourceType, config);
+        if (source == null) {
+            return false;
+        }
+
+        Storage target = openStorage(targetType, config);
+        if (target == null) {
+            closeStorage(source);
+            return false;
+        }
+
+        int threads = Math.max(Math.min(config.getInt("executor.threads", 4), source.getMaximumThreads()), 1);
+        AtomicInteger threadId = new AtomicInteger(1);
+        ExecutorService workers = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "LushRewards Migrator #" + threadId.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        try {
+            return migrate(source, target, workers);
+        } finally {
+            workers.shutdownNow();
+            closeStorage(source);
+            closeStorage(target);
+        }
+    }
+
+    private boolean migrate(Storage source, Storage target, ExecutorService workers) {
+        List<String> moduleIds = new ArrayList<>();
+        // The main user data is stored under a null module id
+        moduleIds.add(null);
+        for (Module module : LushRewards.getInstance().getModules()) {
+            if (module instanceof UserDataModule<?>) {
+                moduleIds.add(module.getId());
+            }
+        }
+
+        UUID after = null;
+        int migrated = 0;
+        try {
+            if (checkpointFile.exists()) {
+                List<String> checkpoint = Files.readAllLines(checkpointFile.toPath(), StandardCharsets.UTF_8);
+                after = UUID.fromString(checkpoint.get(0));
+                migrated = Integer.parseInt(checkpoint.get(1));
+                LushRewards.getInstance().getLogger().info("Resuming migration from '" + after + "' (" + migrated + " users already migrated)");
+            }
+        } catch (IOException | RuntimeException e) {
+            LushRewards.getInstance().getLogger().log(Level.SEVERE, "Failed to read migration checkpoint, migration will start from the beginning: ", e);
+            after = null;
+            migrated = 0;
+        }
+
+        long start = System.currentTimeMillis();
+        int migratedThisRun = 0;
+
+        try {
+            Iterator<UUID> userIds = source.loadUserIds(after);
+            while (userIds.hasNext()) {
+                List<UUID> page = new ArrayList<>(PAGE_SIZE);
+                while (page.size() < PAGE_SIZE && userIds.hasNext()) {
+                    page.add(userIds.next());
+                }
+
+                List<Future<List<UserDataModule.UserData>>> futures = new ArrayList<>(page.size());
+                for (UUID uuid : page) {
+                    futures.add(workers.submit(() -> loadUserData(source, uuid, moduleIds)));
+                }
+
+                List<UserDataModule.UserData> batch = new ArrayList<>();
+                for (Future<List<UserDataModule.UserData>> future : futures) {
+                    batch.addAll(future.get());
+                }
+
+                target.saveModuleUserData(batch);
+
+                // Both storages may cache the users they have read or written, these are not needed again
+                for (UUID uuid : page) {
+                    source.unloadUser(uuid);
+                    target.unloadUser(uuid);
+                }
+
+                after = page.get(page.size() - 1);
+                migrated += page.size();
+                migratedThisRun += page.size();
+                writeCheckpoint(after, migrated);
+
+                double seconds = Math.max(System.currentTimeMillis() - start, 1) / 1000D;
+                LushRewards.getInstance().getLogger().info(String.format("Migrated %d users (%.0f users/s)", migrated, migratedThisRun / seconds));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            LushRewards.getInstance().getLogger().warning("Migration was interrupted, it will resume from the last checkpoint when run again");
+            return false;
+        } catch (ExecutionException | RuntimeException e) {
+            LushRewards.getInstance().getLogger().log(Level.SEVERE, "Migration failed, it will resume from the last checkpoint when run again: ", e);
+            return false;
+        }
+
+        if (!checkpointFile.delete() && checkpointFile.exists()) {
+            LushRewards.getInstance().getLogger().warning("Failed to delete migration checkpoint '" + checkpointFile.getName() + "'");
+        }
+
+        LushRewards.getInstance().getLogger().info("Finished migrating " + migrated + " users from '" + sourceType + "' to '" + targetType + "' (took " + (System.currentTimeMillis() - start) + "ms)");
+        return true;
+    }
+
+    private List<UserDataModule.UserData> loadUserData(Storage source, UUID uuid, List<String> moduleIds) {
+        Map<String, JsonObject> jsonMap = source.loadUserDataJson(uuid, moduleIds);
+
+        List<UserDataModule.UserData> userDataList = new ArrayList<>();
+        jsonMap.forEach((moduleId, json) -> {
+            if (json != null) {
+                userDataList.add(new MigratedUserData(uuid, moduleId, json));
+            }
+        });
+
+        return userDataList;
+    }
+
+    private void writeCheckpoint(UUID after, int migrated) {
+        try {
+            Files.writeString(checkpointFile.toPath(), after + "\n" + migrated, StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            LushRewards.getInstance().getLogger().log(Level.WARNING, "Failed to write migration checkpoint: ", e);
+        }
+    }
+
+    /**
+     * Reuses the active storage if it is of the same type, so that the same files are never opened twice
+     */
+    private Storage openStorage(String type, FileConfiguration config) {
+        Storage storage = StorageManager.createStorage(type);
+        if (storage == null) {
+            LushRewards.getInstance().getLogger().severe("'" + type + "' is not a valid storage type");
+            return null;
+        }
+
+        DataManager dataManager = LushRewards.getInstance().getDataManager();
+        Storage activeStorage = dataManager != null && dataManager.getStorageManager() != null ? dataManager.getStorageManager().getStorage() : null;
+        if (activeStorage != null && activeStorage.getClass() == storage.getClass()) {
+            return activeStorage;
+        }
+
+        storage.enable(StorageManager.getStorageSection(config));
+        return storage;
+    }
+
+    private void closeStorage(Storage storage) {
+        DataManager dataManager = LushRewards.getInstance().getDataManager();
+        if (dataManager == null || dataManager.getStorageManager() == null || dataManager.getStorageManager().getStorage() != storage) {
+            storage.disable();
+        }
+    }
+
+    private static class MigratedUserData extends UserDataModule.UserData {
+        private final JsonObject json;
+
+        public MigratedUserData(UUID uuid, String moduleId, JsonObject json) {
+            super(uuid, moduleId);
+            this.json = json;
+        }
+
+        @Override
+        public JsonObject asJson() {
+            return json;
+        }
+    }
+}
@@ -2,49 +2,112 @@ package org.lushplugins.lushrewards.storage.type;
 
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
 import org.bukkit.configuration.ConfigurationSection;
+import org.jetbrains.annotations.Nullable;
 import org.lushplugins.lushrewards.LushRewards;
 import org.lushplugins.lushrewards.module.UserDataModule;
 import org.lushplugins.lushrewards.storage.Storage;
+import org.lushplugins.lushrewards.storage.StorageExecutor;
 
 import javax.sql.DataSource;
 import java.sql.Connection;
+import java.sql.DatabaseMetaData;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.text.MessageFormat;
-import java.util.UUID;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.logging.Level;
 
 public abstract class AbstractSQLStorage extends Storage {
     protected static final String TABLE_NAME = "lushrewards_users";
     protected static final String MODULES_TABLE_NAME = "lushrewards_users_modules";
+    private static final int USER_ID_PAGE_SIZE = 500;
 
+    private final Set<String> knownColumns = ConcurrentHashMap.newKeySet();
+    private final ConcurrentHashMap<String, String> statements = new ConcurrentHashMap<>();
+    private final LongAdder connectionsAcquired = new LongAdder();
+    private final LongAdder acquireTimeNanos = new LongAdder();
+    private final AtomicLong maxAcquireTimeNanos = new AtomicLong();
     private DataSource dataSource;
+    private TypedSchema typedSchema;
 
     @Override
     public void enable(ConfigurationSection config) {
         this.dataSource = setupDataSource(config);
         testDataSourceConnection();
+        loadSchema();
+
+        if (config != null && config.getBoolean("typed-schema", false)) {
+            typedSchema = new TypedSchema(this);
+            typedSchema.enable();
+        }
+    }
+
+    @Override
+    public void startTasks(StorageExecutor executor) {
+        if (typedSchema != null) {
+            typedSchema.startMigrations(executor);
+        }
+    }
+
+    @Override
+    public void disable() {
+        if (dataSource instanceof AutoCloseable closeable) {
+            try {
+                closeable.close();
+            } catch (Exception e) {
+                LushRewards.getInstance().getLogger().log(Level.WARNING, "Failed to close data source: ", e);
+            }
+        }
+    }
+
+    @Override
+    public Map<String, String> getMetrics() {
+        Map<String, String> metrics = super.getMetrics();
+
+        if (dataSource instanceof HikariDataSource hikariDataSource) {
+            HikariPoolMXBean pool = hikariDataSource.getHikariPoolMXBean();
+            if (pool != null) {
+                metrics.put("Pool connections (active/idle/total)", pool.getActiveConnections() + "/" + pool.getIdleConnections() + "/" + pool.getTotalConnections());
+                metrics.put("Pool threads waiting", String.valueOf(pool.getThreadsAwaitingConnection()));
+            }
+        }
+
+        long acquired = connectionsAcquired.sum();
+        if (acquired > 0) {
+            metrics.put("Connections acquired", String.valueOf(acquired));
+            metrics.put("Connection acquire time (avg/max)", String.format("%.2fms/%.2fms",
+                acquireTimeNanos.sum() / (double) acquired / 1_000_000D,
+                maxAcquireTimeNanos.get() / 1_000_000D));
+        }
+
+        return metrics;
     }
 
     @Override
     public JsonObject loadModuleUserDataJson(UUID uuid, String moduleId) {
-        String table;
-        String column;
-        if (moduleId != null) {
-            table = MODULES_TABLE_NAME;
-            column = moduleId + "_data";
-        } else {
-            table = TABLE_NAME;
-            column = "data";
+        TypedSchema.TypedTable typedTable = getTypedTable(moduleId);
+        if (typedTable != null) {
+            try (Connection conn = conn()) {
+                return typedSchema.load(conn, typedTable, uuid, moduleId);
+            } catch (SQLException e) {
+                throw new IllegalStateException("Failed to load user data", e);
+            }
         }
-        column = formatHeader(column);
 
-        assertJsonColumn(table, column);
+        String table = getTable(moduleId);
+        String column = getColumn(moduleId);
+        registerJsonColumn(table, column);
 
         try (Connection conn = conn();
-             PreparedStatement stmt = conn.prepareStatement(String.format("SELECT `%s` FROM `%s` WHERE uuid = ?;", column, table))
+             PreparedStatement stmt = conn.prepareStatement(getSelectStatement(table, column))
         ) {
             setUUIDToStatement(stmt, 1, uuid);
 
@@ -59,45 +122,344 @@ public abstract class AbstractSQLStorage extends Storage {
 
             return json;
         } catch (SQLException e) {
-            LushRewards.getInstance().getLogger().log(Level.SEVERE, "Failed to load user data: ", e);
+            throw new IllegalStateException("Failed to load user data", e);
+        }
+    }
+
+    @Override
+    public Map<String, JsonObject> loadUserDataJson(UUID uuid, Collection<String> moduleIds) {
+        Map<String, JsonObject> output = new HashMap<>();
+        List<String> moduleIdList = new ArrayList<>();
+        for (String moduleId : moduleIds) {
+            // Typed tables are loaded individually, the remaining json columns are still loaded together
+            if (getTypedTable(moduleId) != null) {
+                output.put(moduleId, loadModuleUserDataJson(uuid, moduleId));
+            } else {
+                moduleIdList.add(moduleId);
+            }
+        }
+
+        if (moduleIdList.isEmpty()) {
+            return output;
+        }
+
+        moduleIdList.forEach(moduleId -> registerJsonColumn(getTable(moduleId), getColumn(moduleId)));
+
+        // Each column is fetched by primary key through a scalar subquery so that every module is loaded in one round-trip
+        StringJoiner columns = new StringJoiner(", ");
+        for (String moduleId : moduleIdList) {
+            columns.add(String.format("(SELECT `%s` FROM `%s` WHERE uuid = ?)", getColumn(moduleId), getTable(moduleId)));
+        }
+
+        try (Connection conn = conn();
+             PreparedStatement stmt = conn.prepareStatement(statements.computeIfAbsent("select-all:" + columns, (ignored) -> "SELECT " + columns + ";"))
+        ) {
+            for (int i = 0; i < moduleIdList.size(); i++) {
+                setUUIDToStatement(stmt, i + 1, uuid);
+            }
+
+            ResultSet resultSet = stmt.executeQuery();
+            boolean hasRow = resultSet.next();
+            for (int i = 0; i < moduleIdList.size(); i++) {
+                String jsonRaw = hasRow ? resultSet.getString(i + 1) : null;
+                output.put(moduleIdList.get(i), jsonRaw != null ? JsonParser.parseString(jsonRaw).getAsJsonObject() : null);
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException("Failed to load user data", e);
+        }
+
+        return output;
+    }
+
+    @Override
+    public Map<UUID, Map<String, JsonObject>> loadUserDataJson(Collection<UUID> uuids, Collection<String> moduleIds) {
+        Map<UUID, Map<String, JsonObject>> output = new HashMap<>();
+        Map<String, List<String>> tableModuleIds = new LinkedHashMap<>();
+        for (UUID uuid : uuids) {
+            output.put(uuid, new HashMap<>());
+        }
+
+        if (uuids.isEmpty()) {
+            return output;
+        }
+
+        try (Connection conn = conn()) {
+            for (String moduleId : moduleIds) {
+                TypedSchema.TypedTable typedTable = getTypedTable(moduleId);
+                if (typedTable != null) {
+                    // Typed tables are loaded individually, the json columns are still loaded together
+                    for (UUID uuid : uuids) {
+                        output.get(uuid).put(moduleId, typedSchema.load(conn, typedTable, uuid, moduleId));
+                    }
+                } else {
+                    registerJsonColumn(getTable(moduleId), getColumn(moduleId));
+                    tableModuleIds.computeIfAbsent(getTable(moduleId), (ignored) -> new ArrayList<>()).add(moduleId);
+                    output.values().forEach(jsonMap -> jsonMap.put(moduleId, null));
+                }
+            }
+
+            // Each table is read once for every user in the batch
+            for (Map.Entry<String, List<String>> entry : tableModuleIds.entrySet()) {
+                List<String> tableModules = entry.getValue();
+                StringJoiner columns = new StringJoiner(", ");
+                tableModules.forEach(moduleId -> columns.add("`" + getColumn(moduleId) + "`"));
+                // Padded to a power of two with repeats of the last uuid so that only a few statements are ever prepared
+                int parameterCount = uuids.size() > 1 ? Integer.highestOneBit(uuids.size() - 1) << 1 : 1;
+                String parameters = String.join(", ", Collections.nCopies(parameterCount, "?"));
+
+                try (PreparedStatement stmt = conn.prepareStatement(String.format("SELECT uuid, %s FROM `%s` WHERE uuid IN (%s);", columns, entry.getKey(), parameters))) {
+                    int index = 1;
+                    UUID lastUuid = null;
+                    for (UUID uuid : uuids) {
+                        setUUIDToStatement(stmt, index++, uuid);
+                        lastUuid = uuid;
+                    }
+
+                    while (index <= parameterCount) {
+                        setUUIDToStatement(stmt, index++, lastUuid);
+                    }
+
+                    ResultSet resultSet = stmt.executeQuery();
+                    while (resultSet.next()) {
+                        Map<String, JsonObject> jsonMap = output.get(UUID.fromString(resultSet.getString(1)));
+                        if (jsonMap == null) {
+                            continue;
+                        }
+
+                        for (int i = 0; i < tableModules.size(); i++) {
+                            String jsonRaw = resultSet.getString(i + 2);
+                            jsonMap.put(tableModules.get(i), jsonRaw != null ? JsonParser.parseString(jsonRaw).getAsJsonObject() : null);
+                        }
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException("Failed to load user data", e);
         }
 
-        return null;
+        return output;
     }
 
     @Override
     public void saveModuleUserData(UserDataModule.UserData userData) {
         UUID uuid = userData.getUniqueId();
         String moduleId = userData.getModuleId();
+
+        TypedSchema.TypedTable typedTable = getTypedTable(moduleId);
+        if (typedTable != null) {
+            try (Connection conn = conn()) {
+                typedSchema.save(conn, typedTable, List.of(userData));
+            } catch (SQLException e) {
+                throw new IllegalStateException("Failed to save user data", e);
+            }
+
+            return;
+        }
+
         JsonObject json = userData.asJson();
         if (json == null) {
             throw new NullPointerException("JsonObject cannot be null when saving");
         }
 
-        String table;
-        String column;
-        if (moduleId != null) {
-            table = MODULES_TABLE_NAME;
-            column = moduleId + "_data";
-        } else {
-            table = TABLE_NAME;
-            column = "data";
+        String table = getTable(moduleId);
+        String column = getColumn(moduleId);
+        registerJsonColumn(table, column);
+
+        try (Connection conn = conn()) {
+            try (PreparedStatement stmt = conn.prepareStatement(getUpsertStatement(table, column))) {
+                setUUIDToStatement(stmt, 1, uuid);
+                setJsonToStatement(stmt, 2, json);
+                stmt.executeUpdate();
+            }
+
+            TypedSchema.TypedTable migratingTable = getMigratingTable(moduleId);
+            if (migratingTable != null) {
+                typedSchema.save(conn, migratingTable, List.of(userData));
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException("Failed to save user data", e);
         }
-        column = formatHeader(column);
+    }
 
-        assertJsonColumn(table, column);
+    @Override
+    public void saveModuleUserData(Collection<UserDataModule.UserData> userDataList) {
+        Map<String, List<UserDataModule.UserData>> moduleUserData = new HashMap<>();
+        for (UserDataModule.UserData userData : userDataList) {
+            moduleUserData.computeIfAbsent(userData.getModuleId(), (ignored) -> new ArrayList<>()).add(userData);
+        }
 
-        try (Connection conn = conn();
-             PreparedStatement stmt = conn.prepareStatement(getInsertOrUpdateStatement(table, column))
-        ) {
-            setUUIDToStatement(stmt, 1, uuid);
-            setJsonToStatement(stmt, 2, json);
-            stmt.executeUpdate();
+        Map<String, TypedSchema.TypedTable> typedTables = new HashMap<>();
+        for (String moduleId : moduleUserData.keySet()) {
+            TypedSchema.TypedTable typedTable = getTypedTable(moduleId);
+            if (typedTable != null) {
+                typedTables.put(moduleId, typedTable);
+            } else {
+                registerJsonColumn(getTable(moduleId), getColumn(moduleId));
+            }
+        }
+
+        try (Connection conn = conn()) {
+            conn.setAutoCommit(false);
+
+            try {
+                for (Map.Entry<String, List<UserDataModule.UserData>> entry : moduleUserData.entrySet()) {
+                    String moduleId = entry.getKey();
+                    TypedSchema.TypedTable typedTable = typedTables.get(moduleId);
+                    if (typedTable != null) {
+                        typedSchema.save(conn, typedTable, entry.getValue());
+                        continue;
+                    }
+
+                    try (PreparedStatement stmt = conn.prepareStatement(getUpsertStatement(getTable(moduleId), getColumn(moduleId)))) {
+                        for (UserDataModule.UserData userData : entry.getValue()) {
+                            JsonObject json = userData.asJson();
+                            if (json == null) {
+                                LushRewards.getInstance().getLogger().warning("Skipped saving user data for '" + userData.getUniqueId() + "', JsonObject cannot be null when saving");
+                                continue;
+                            }
+
+                            setUUIDToStatement(stmt, 1, userData.getUniqueId());
+                            setJsonToStatement(stmt, 2, json);
+                            stmt.addBatch();
+                        }
+
+                        stmt.executeBatch();
+                    }
+
+                    TypedSchema.TypedTable migratingTable = getMigratingTable(moduleId);
+                    if (migratingTable != null) {
+                        typedSchema.save(conn, migratingTable, entry.getValue());
+                    }
+                }
+
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException("Failed to save batch of user data", e);
+        }
+    }
+
+    @Override
+    public Iterator<UUID> loadUserIds(@Nullable UUID after) {
+        return pageUserIds(after, USER_ID_PAGE_SIZE, this::loadUserIds);
+    }
+
+    private List<UUID> loadUserIds(@Nullable UUID after, int limit) {
+        try (Connection conn = conn()) {
+            if (getTypedTable(null) != null) {
+                return typedSchema.loadUserIds(conn, after, limit);
+            }
+
+            // Every user has a row in the main table once they have joined
+            try (PreparedStatement stmt = conn.prepareStatement(statements.computeIfAbsent("select-users", (ignored) ->
+                String.format("SELECT uuid FROM `%s` WHERE uuid > ? ORDER BY uuid LIMIT ?;", TABLE_NAME)))
+            ) {
+                stmt.setString(1, after != null ? after.toString() : "");
+                stmt.setInt(2, limit);
+
+                List<UUID> uuids = new ArrayList<>();
+                ResultSet resultSet = stmt.executeQuery();
+                while (resultSet.next()) {
+                    uuids.add(UUID.fromString(resultSet.getString(1).trim()));
+                }
+
+                return uuids;
+            }
         } catch (SQLException e) {
-            LushRewards.getInstance().getLogger().log(Level.SEVERE, "Failed to save user data: ", e);
+            throw new IllegalStateException("Failed to load users", e);
         }
     }
 
+    /**
+     * Creates the tables and caches the columns that already exist so that they do not need to be checked again
+     */
+    protected void loadSchema() {
+        assertTable(TABLE_NAME);
+        assertTable(MODULES_TABLE_NAME);
+
+        try (Connection conn = conn()) {
+            DatabaseMetaData metaData = conn.getMetaData();
+            for (String table : List.of(TABLE_NAME, MODULES_TABLE_NAME)) {
+                try (ResultSet columns = metaData.getColumns(conn.getCatalog(), conn.getSchema(), table, null)) {
+                    while (columns.next()) {
+                        if (table.equalsIgnoreCase(columns.getString("TABLE_NAME"))) {
+                            knownColumns.add(getColumnKey(table, columns.getString("COLUMN_NAME")));
+                        }
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            LushRewards.getInstance().getLogger().log(Level.SEVERE, "Failed to load database schema: ", e);
+        }
+
+        registerJsonColumn(TABLE_NAME, getColumn(null));
+    }
+
+    /**
+     * Ensures that a json column exists, each column is only checked against the database until it has been found
+     *
+     * @throws IllegalStateException If the column could not be found or created, it is checked again on next use
+     */
+    protected void registerJsonColumn(String table, String column) {
+        String key = getColumnKey(table, column);
+        if (knownColumns.contains(key)) {
+            return;
+        }
+
+        synchronized (knownColumns) {
+            if (!knownColumns.contains(key)) {
+                if (!assertJsonColumn(table, column)) {
+                    throw new IllegalStateException("Failed to assert column '" + column + "' in table '" + table + "'");
+                }
+
+                knownColumns.add(key);
+            }
+        }
+    }
+
+    protected boolean isKnownColumn(String table, String column) {
+        return knownColumns.contains(getColumnKey(table, column));
+    }
+
+    /**
+     * @return The typed table for this module, or null if the typed schema is disabled or the module is stored as json
+     */
+    protected TypedSchema.TypedTable getTypedTable(@Nullable String moduleId) {
+        return typedSchema != null ? typedSchema.getTable(moduleId) : null;
+    }
+
+    /**
+     * @return The typed table that this module's data is being copied into, or null if it is not being migrated
+     */
+    protected TypedSchema.TypedTable getMigratingTable(@Nullable String moduleId) {
+        return typedSchema != null ? typedSchema.getMigratingTable(moduleId) : null;
+    }
+
+    protected String getTable(@Nullable String moduleId) {
+        return moduleId != null ? MODULES_TABLE_NAME : TABLE_NAME;
+    }
+
+    protected String getColumn(@Nullable String moduleId) {
+        return formatHeader(moduleId != null ? moduleId + "_data" : "data");
+    }
+
+    protected String getSelectStatement(String table, String column) {
+        return statements.computeIfAbsent("select:" + table + ":" + column, (ignored) -> String.format("SELECT `%s` FROM `%s` WHERE uuid = ?;", column, table));
+    }
+
+    protected String getUpsertStatement(String table, String column) {
+        return statements.computeIfAbsent("upsert:" + table + ":" + column, (ignored) -> getInsertOrUpdateStatement(table, List.of("uuid"), List.of(column)));
+    }
+
+    private String getColumnKey(String table, String column) {
+        return table.toLowerCase() + "." + column.toLowerCase();
+    }
+
     protected void assertTable(String table) {
         try (Connection conn = conn();
              PreparedStatement stmt = conn.prepareStatement(
@@ -109,17 +471,50 @@ public abstract class AbstractSQLStorage extends Storage {
         }
     }
 
-    protected abstract String getInsertOrUpdateStatement(String table, String column);
+    /**
+     * @param keyColumns The columns that make up the table's primary key
+     * @param columns The columns to update when a row with the same key already exists
+     */
+    protected abstract String getInsertOrUpdateStatement(String table, List<String> keyColumns, List<String> columns);
+
+    /**
+     * @param keyColumns The columns that make up the table's primary key
+     * @param columns The columns to insert, a row with the same key that already exists is left unchanged
+     */
+    protected abstract String getInsertIfAbsentStatement(String table, List<String> keyColumns, List<String> columns);
 
     protected abstract void setUUIDToStatement(PreparedStatement stmt, int index, UUID uuid) throws SQLException;
 
+    /**
+     * Set a uuid to a column of {@link #getUUIDType()}, used by the typed schema
+     */
+    protected abstract void setBinaryUUIDToStatement(PreparedStatement stmt, int index, UUID uuid) throws SQLException;
+
+    protected abstract UUID getBinaryUUIDFromResultSet(ResultSet resultSet, int index) throws SQLException;
+
+    /**
+     * @return The column type used to store uuids in the typed schema
+     */
+    protected abstract String getUUIDType();
+
+    /**
+     * @return The column type used to store binary data in the typed schema
+     */
+    protected abstract String getBinaryType();
+
     protected abstract void setJsonToStatement(PreparedStatement stmt, int index, JsonObject json) throws SQLException;
 
-    protected void assertJsonColumn(String table, String column) {
-        assertColumn(table, column, "JSON");
+    /**
+     * @return Whether the column exists or has been created
+     */
+    protected boolean assertJsonColumn(String table, String column) {
+        return assertColumn(table, column, "JSON");
     }
 
-    protected abstract void assertColumn(String table, String column, String type);
+    /**
+     * @return Whether the column exists or has been created
+     */
+    protected abstract boolean assertColumn(String table, String column, String type);
 
     /**
      * Format column names
@@ -129,20 +524,57 @@ public abstract class AbstractSQLStorage extends Storage {
     }
 
     protected Connection conn() {
+        long start = System.nanoTime();
         try {
             return getDataSource().getConnection();
         } catch (SQLException e) {
             LushRewards.getInstance().log(Level.SEVERE, "An error occurred whilst getting a connection: ", e);
             return null;
+        } finally {
+            recordConnectionAcquired(System.nanoTime() - start);
         }
     }
 
+    protected void recordConnectionAcquired(long nanos) {
+        connectionsAcquired.increment();
+        acquireTimeNanos.add(nanos);
+        maxAcquireTimeNanos.accumulateAndGet(nanos, Math::max);
+    }
+
     protected DataSource getDataSource() {
         return dataSource;
     }
 
     protected abstract DataSource setupDataSource(ConfigurationSection config);
 
+    /**
+     * Wraps a driver data source in a connection pool configured from the 'pool' section of the storage config
+     */
+    protected HikariDataSource createPooledDataSource(DataSource driverDataSource, ConfigurationSection config) {
+        ConfigurationSection poolSection = config != null ? config.getConfigurationSection("pool") : null;
+
+        HikariConfig hikariConfig = new HikariConfig();
+        hikariConfig.setPoolName("LushRewards-" + getClass().getSimpleName());
+        hikariConfig.setDataSource(driverDataSource);
+        // Failures are reported by testDataSourceConnection rather than preventing the plugin from enabling
+        hikariConfig.setInitializationFailTimeout(-1);
+
+        if (poolSection != null) {
+            int maximumPoolSize = poolSection.getInt("maximum-pool-size", 10);
+            hikariConfig.setMaximumPoolSize(maximumPoolSize);
+            hikariConfig.setMinimumIdle(poolSection.getInt("minimum-idle", maximumPoolSize));
+            hikariConfig.setMaxLifetime(poolSection.getLong("maximum-lifetime", TimeUnit.MINUTES.toMillis(30)));
+            hikariConfig.setKeepaliveTime(poolSection.getLong("keepalive-time", 0));
+            hikariConfig.setConnectionTimeout(poolSection.getLong("connection-timeout", TimeUnit.SECONDS.toMillis(5)));
+            hikariConfig.setIdleTimeout(poolSection.getLong("idle-timeout", TimeUnit.MINUTES.toMillis(10)));
+            hikariConfig.setLeakDetectionThreshold(poolSection.getLong("leak-detection-threshold", 0));
+        } else {
+            hikariConfig.setConnectionTimeout(TimeUnit.SECONDS.toMillis(5));
+        }
+
+        return new HikariDataSource(hikariConfig);
+    }
+
     protected void testDataSourceConnection() {
         try (Connection conn = conn()) {
             if (!conn.isValid(1000)) {
@@ -3,58 +3,153 @@ package org.lushplugins.lushrewards.storage.type;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
+import org.jetbrains.annotations.Nullable;
 import org.lushplugins.lushrewards.LushRewards;
 import org.lushplugins.lushrewards.module.UserDataModule;
 import org.lushplugins.lushrewards.storage.Storage;
 
 import java.io.*;
-import java.util.UUID;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
 
 public class JsonStorage extends Storage {
+    private static final Pattern USER_FILE_NAME = Pattern.compile("[0-9a-f-]{36}\\.json");
+
     private final File storageDir = new File(LushRewards.getInstance().getDataFolder(), "data");
+    // Write-through cache of user files, entries are released once the user has logged out
+    private final ConcurrentHashMap<UUID, JsonObject> documents = new ConcurrentHashMap<>();
 
     @Override
     public JsonObject loadModuleUserDataJson(UUID uuid, String moduleId) {
-        String path = moduleId != null ? moduleId : "main";
+        return getModuleJson(getDocument(uuid), moduleId);
+    }
 
-        JsonObject json = loadFile(uuid);
-        return json.has(path) ? json.get(path).getAsJsonObject() : null;
+    @Override
+    public Map<String, JsonObject> loadUserDataJson(UUID uuid, Collection<String> moduleIds) {
+        JsonObject json = getDocument(uuid);
+
+        Map<String, JsonObject> output = new HashMap<>();
+        for (String moduleId : moduleIds) {
+            output.put(moduleId, getModuleJson(json, moduleId));
+        }
+
+        return output;
     }
 
     @Override
     public void saveModuleUserData(UserDataModule.UserData userData) {
-        if (!storageDir.exists()) {
-            storageDir.mkdir();
+        saveModuleUserData(List.of(userData));
+    }
+
+    @Override
+    public void saveModuleUserData(Collection<UserDataModule.UserData> userDataList) {
+        Map<UUID, List<UserDataModule.UserData>> userDataByUser = new HashMap<>();
+        for (UserDataModule.UserData userData : userDataList) {
+            userDataByUser.computeIfAbsent(userData.getUniqueId(), (ignored) -> new ArrayList<>()).add(userData);
         }
 
-        UUID uuid = userData.getUniqueId();
-        String moduleId = userData.getModuleId();
-        JsonObject moduleJson = userData.asJson();
-        if (moduleJson == null) {
-            throw new NullPointerException("JsonObject cannot be null when saving");
+        userDataByUser.forEach((uuid, userDataEntries) -> {
+            JsonObject json = getDocument(uuid);
+
+            synchronized (json) {
+                for (UserDataModule.UserData userData : userDataEntries) {
+                    JsonObject moduleJson = userData.asJson();
+                    if (moduleJson == null) {
+                        throw new NullPointerException("JsonObject cannot be null when saving");
+                    }
+
+                    String moduleId = userData.getModuleId();
+                    json.add(moduleId != null ? moduleId : "main", moduleJson);
+                }
+
+                try {
+                    writeFile(uuid, json);
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+    }
+
+    @Override
+    public Iterator<UUID> loadUserIds(@Nullable UUID after) {
+        if (!storageDir.exists()) {
+            return Collections.emptyIterator();
         }
 
-        JsonObject json = loadFile(uuid);
-        json.add(moduleId != null ? moduleId : "main", moduleJson);
-        try {
-            FileWriter writer = new FileWriter(getUserFile(uuid));
-            LushRewards.getInstance().getGson().toJson(json, writer);
-            writer.flush();
+        try (Stream<Path> files = Files.list(storageDir.toPath())) {
+            return sortUserIds(files
+                .map(file -> file.getFileName().toString())
+                .filter(fileName -> USER_FILE_NAME.matcher(fileName).matches())
+                .map(fileName -> fileName.substring(0, fileName.length() - ".json".length())), after);
         } catch (IOException e) {
-            throw new RuntimeException(e);
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void unloadUser(UUID uuid) {
+        documents.remove(uuid);
+    }
+
+    @Override
+    public Map<String, String> getMetrics() {
+        Map<String, String> metrics = super.getMetrics();
+        metrics.put("Cached user files", String.valueOf(documents.size()));
+        return metrics;
+    }
+
+    private JsonObject getModuleJson(JsonObject json, String moduleId) {
+        String path = moduleId != null ? moduleId : "main";
+
+        synchronized (json) {
+            // Copied as the cached document must not be modified by the caller
+            return json.has(path) ? json.get(path).getAsJsonObject().deepCopy() : null;
         }
     }
 
+    private JsonObject getDocument(UUID uuid) {
+        return documents.computeIfAbsent(uuid, this::loadFile);
+    }
+
     private JsonObject loadFile(UUID uuid) {
         if (!storageDir.exists()) {
             storageDir.mkdir();
         }
 
-        try {
-            JsonElement json = JsonParser.parseReader(new FileReader(getUserFile(uuid)));
+        try (Reader reader = new BufferedReader(new InputStreamReader(new FileInputStream(getUserFile(uuid)), StandardCharsets.UTF_8))) {
+            JsonElement json = JsonParser.parseReader(reader);
             return json.isJsonObject() ? json.getAsJsonObject() : new JsonObject();
         } catch (FileNotFoundException e) {
             return new JsonObject();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Writes to a temporary file which then replaces the user's file, so that a crash mid-write cannot corrupt it
+     */
+    private void writeFile(UUID uuid, JsonObject json) throws IOException {
+        if (!storageDir.exists()) {
+            storageDir.mkdir();
+        }
+
+        Path target = getUserFile(uuid).toPath();
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+        Files.writeString(temp, json.toString(), StandardCharsets.UTF_8);
+
+        try {
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
         }
     }
 
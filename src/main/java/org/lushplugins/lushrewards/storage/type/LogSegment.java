@@ -0,0 +1,280 @@
+package org.lushplugins.lushrewards.storage.type;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+/**
+ * A single append-only segment file used by {@link LogStorage}
+ * <p>
+ * Records are stored as {@code [int bodyLength][body][int crc32]} where the body is
+ * {@code [long uuidMost][long uuidLeast][short moduleIdLength][moduleId][payload]}.
+ * Once a segment is sealed a footer is appended which lists the latest record for each key in
+ * the segment, followed by a trailer of {@code [int entryCount][long footerStart][long magic]}
+ */
+public class LogSegment implements Closeable {
+    private static final long FOOTER_MAGIC = 0x4C75736852657773L;
+    private static final int TRAILER_SIZE = Integer.BYTES + Long.BYTES + Long.BYTES;
+    private static final int RECORD_OVERHEAD = Integer.BYTES * 2;
+    private static final int BODY_HEADER_SIZE = Long.BYTES * 2 + Short.BYTES;
+
+    private final int id;
+    private final File file;
+    private final FileChannel channel;
+    private final AtomicLong liveBytes = new AtomicLong();
+    // Latest record offset and length for each key, only kept whilst the segment is writable
+    private final Map<RecordKey, long[]> entries = new HashMap<>();
+    private long dataSize;
+    private boolean sealed;
+
+    private LogSegment(int id, File file, FileChannel channel) {
+        this.id = id;
+        this.file = file;
+        this.channel = channel;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public boolean isSealed() {
+        return sealed;
+    }
+
+    /**
+     * @return The size of this segment's records, excluding the footer
+     */
+    public long getDataSize() {
+        return dataSize;
+    }
+
+    public long getLiveBytes() {
+        return liveBytes.get();
+    }
+
+    public void addLiveBytes(long bytes) {
+        liveBytes.addAndGet(bytes);
+    }
+
+    /**
+     * Append a record to the end of the segment
+     *
+     * @return The offset the record was written at
+     */
+    public long append(UUID uuid, String moduleId, byte[] payload) throws IOException {
+        if (sealed) {
+            throw new IllegalStateException("Cannot append to sealed segment " + id);
+        }
+
+        ByteBuffer buffer = encodeRecord(uuid, moduleId, payload);
+        int length = buffer.remaining();
+        long offset = dataSize;
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, offset + (length - buffer.remaining()));
+        }
+
+        dataSize += length;
+        entries.put(new RecordKey(uuid, moduleId), new long[]{offset, length});
+        return offset;
+    }
+
+    public static int getRecordLength(String moduleId, byte[] payload) {
+        return RECORD_OVERHEAD + BODY_HEADER_SIZE + moduleId.getBytes(StandardCharsets.UTF_8).length + payload.length;
+    }
+
+    public LogRecord read(long offset) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(Integer.BYTES);
+        readFully(header, offset);
+        int bodyLength = header.flip().getInt();
+        if (bodyLength < BODY_HEADER_SIZE || offset + RECORD_OVERHEAD + bodyLength > channel.size()) {
+            throw new IOException("Invalid record length " + bodyLength + " at offset " + offset + " in segment " + id);
+        }
+
+        ByteBuffer body = ByteBuffer.allocate(bodyLength + Integer.BYTES);
+        readFully(body, offset + Integer.BYTES);
+        body.flip();
+
+        CRC32 crc = new CRC32();
+        crc.update(body.array(), 0, bodyLength);
+        if ((int) crc.getValue() != body.getInt(bodyLength)) {
+            throw new IOException("Checksum mismatch for record at offset " + offset + " in segment " + id);
+        }
+
+        UUID uuid = new UUID(body.getLong(), body.getLong());
+        byte[] moduleIdBytes = new byte[body.getShort()];
+        body.get(moduleIdBytes);
+        byte[] payload = new byte[bodyLength - BODY_HEADER_SIZE - moduleIdBytes.length];
+        body.get(payload);
+
+        return new LogRecord(uuid, new String(moduleIdBytes, StandardCharsets.UTF_8), payload, offset, RECORD_OVERHEAD + bodyLength);
+    }
+
+    /**
+     * Reads every record in an unsealed segment, anything after the first damaged record is truncated
+     */
+    public List<LogRecord> scan() throws IOException {
+        List<LogRecord> records = new ArrayList<>();
+        long size = channel.size();
+        long offset = 0;
+
+        while (offset + RECORD_OVERHEAD + BODY_HEADER_SIZE <= size) {
+            LogRecord record;
+            try {
+                record = read(offset);
+            } catch (IOException e) {
+                break;
+            }
+
+            records.add(record);
+            entries.put(new RecordKey(record.uuid(), record.moduleId()), new long[]{offset, record.length()});
+            offset += record.length();
+        }
+
+        if (offset < size) {
+            channel.truncate(offset);
+        }
+
+        dataSize = offset;
+        return records;
+    }
+
+    /**
+     * Write this segment's footer, once sealed no further records can be appended
+     */
+    public void seal() throws IOException {
+        if (sealed) {
+            return;
+        }
+
+        int footerSize = TRAILER_SIZE;
+        for (RecordKey key : entries.keySet()) {
+            footerSize += BODY_HEADER_SIZE + key.moduleId().getBytes(StandardCharsets.UTF_8).length + Integer.BYTES * 2;
+        }
+
+        ByteBuffer footer = ByteBuffer.allocate(footerSize);
+        entries.forEach((key, location) -> {
+            byte[] moduleIdBytes = key.moduleId().getBytes(StandardCharsets.UTF_8);
+            footer.putLong(key.uuid().getMostSignificantBits())
+                .putLong(key.uuid().getLeastSignificantBits())
+                .putShort((short) moduleIdBytes.length)
+                .put(moduleIdBytes)
+                .putInt((int) location[0])
+                .putInt((int) location[1]);
+        });
+        footer.putInt(entries.size()).putLong(dataSize).putLong(FOOTER_MAGIC);
+        footer.flip();
+
+        long position = dataSize;
+        while (footer.hasRemaining()) {
+            position += channel.write(footer, position);
+        }
+
+        channel.force(true);
+        entries.clear();
+        sealed = true;
+    }
+
+    /**
+     * @return The entries listed in this segment's footer
+     */
+    public List<FooterEntry> readFooter() throws IOException {
+        long size = channel.size();
+        ByteBuffer trailer = ByteBuffer.allocate(TRAILER_SIZE);
+        readFully(trailer, size - TRAILER_SIZE);
+        trailer.flip();
+
+        int entryCount = trailer.getInt();
+        long footerStart = trailer.getLong();
+        ByteBuffer footer = ByteBuffer.allocate((int) (size - TRAILER_SIZE - footerStart));
+        readFully(footer, footerStart);
+        footer.flip();
+
+        List<FooterEntry> footerEntries = new ArrayList<>(entryCount);
+        for (int i = 0; i < entryCount; i++) {
+            UUID uuid = new UUID(footer.getLong(), footer.getLong());
+            byte[] moduleIdBytes = new byte[footer.getShort()];
+            footer.get(moduleIdBytes);
+            footerEntries.add(new FooterEntry(uuid, new String(moduleIdBytes, StandardCharsets.UTF_8), footer.getInt(), footer.getInt()));
+        }
+
+        return footerEntries;
+    }
+
+    public void force() throws IOException {
+        channel.force(false);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                throw new EOFException("Unexpected end of segment " + id);
+            }
+        }
+    }
+
+    private static ByteBuffer encodeRecord(UUID uuid, String moduleId, byte[] payload) {
+        byte[] moduleIdBytes = moduleId.getBytes(StandardCharsets.UTF_8);
+        int bodyLength = BODY_HEADER_SIZE + moduleIdBytes.length + payload.length;
+
+        ByteBuffer buffer = ByteBuffer.allocate(RECORD_OVERHEAD + bodyLength);
+        buffer.putInt(bodyLength)
+            .putLong(uuid.getMostSignificantBits())
+            .putLong(uuid.getLeastSignificantBits())
+            .putShort((short) moduleIdBytes.length)
+            .put(moduleIdBytes)
+            .put(payload);
+
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), Integer.BYTES, bodyLength);
+        buffer.putInt((int) crc.getValue());
+        return buffer.flip();
+    }
+
+    /**
+     * Opens an existing segment file, or creates it if it does not exist
+     */
+    public static LogSegment open(int id, File file) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        LogSegment segment = new LogSegment(id, file, channel);
+
+        long size = channel.size();
+        if (size >= TRAILER_SIZE) {
+            ByteBuffer trailer = ByteBuffer.allocate(TRAILER_SIZE);
+            segment.readFully(trailer, size - TRAILER_SIZE);
+            trailer.flip();
+            trailer.getInt();
+            long footerStart = trailer.getLong();
+
+            if (trailer.getLong() == FOOTER_MAGIC && footerStart >= 0 && footerStart <= size - TRAILER_SIZE) {
+                segment.dataSize = footerStart;
+                segment.sealed = true;
+            }
+        }
+
+        return segment;
+    }
+
+    public record RecordKey(UUID uuid, String moduleId) {}
+
+    public record LogRecord(UUID uuid, String moduleId, byte[] payload, long offset, int length) {}
+
+    public record FooterEntry(UUID uuid, String moduleId, int offset, int length) {}
+}
@@ -0,0 +1,358 @@
+package org.lushplugins.lushrewards.storage.type;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.bukkit.configuration.ConfigurationSection;
+import org.jetbrains.annotations.Nullable;
+import org.lushplugins.lushrewards.LushRewards;
+import org.lushplugins.lushrewards.module.UserDataModule;
+import org.lushplugins.lushrewards.storage.Storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Stores user data as records appended to segment files, the location of the latest record for each
+ * user and module is held in memory and is rebuilt from the segment footers on startup
+ */
+public class LogStorage extends Storage {
+    private static final Pattern SEGMENT_NAME = Pattern.compile("segment-(\\d+)\\.log");
+    private static final String MAIN_MODULE_ID = "";
+    // Record pointers are packed as [16 bit segment id][28 bit offset][20 bit length]
+    private static final int MAX_SEGMENT_SIZE = (1 << 28) - 1;
+    private static final int MAX_RECORD_LENGTH = (1 << 20) - 1;
+
+    private final File logDir = new File(LushRewards.getInstance().getDataFolder(), "log");
+    private final ConcurrentHashMap<String, Integer> moduleSlots = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<UUID, long[]> index = new ConcurrentHashMap<>();
+    private final ConcurrentSkipListMap<Integer, LogSegment> segments = new ConcurrentSkipListMap<>();
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private LogSegment activeSegment;
+    private long segmentSize;
+    private double compactionThreshold;
+    private ScheduledExecutorService compactionThread;
+
+    @Override
+    public void enable(ConfigurationSection config) {
+        ConfigurationSection logSection = config != null ? config.getConfigurationSection("log") : null;
+        segmentSize = Math.min(logSection != null ? logSection.getLong("segment-size", 64 * 1024 * 1024) : 64 * 1024 * 1024, MAX_SEGMENT_SIZE);
+        compactionThreshold = logSection != null ? logSection.getDouble("compaction-threshold", 0.5) : 0.5;
+        long compactionInterval = logSection != null ? logSection.getLong("compaction-interval", 600) : 600;
+
+        if (!logDir.exists()) {
+            logDir.mkdirs();
+        }
+
+        long start = System.currentTimeMillis();
+        try {
+            loadSegments();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to load log storage", e);
+        }
+        LushRewards.getInstance().getLogger().info("Loaded " + index.size() + " users from " + segments.size() + " log segments (took " + (System.currentTimeMillis() - start) + "ms)");
+
+        if (compactionInterval > 0) {
+            compactionThread = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "LushRewards Log Compaction");
+                thread.setDaemon(true);
+                return thread;
+            });
+            compactionThread.scheduleWithFixedDelay(this::compact, compactionInterval, compactionInterval, TimeUnit.SECONDS);
+        }
+    }
+
+    @Override
+    public void disable() {
+        if (compactionThread != null) {
+            compactionThread.shutdown();
+            try {
+                compactionThread.awaitTermination(30, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            compactionThread = null;
+        }
+
+        writeLock.lock();
+        try {
+            // Sealing the active segment means it does not need to be scanned on the next startup
+            if (activeSegment != null && activeSegment.getDataSize() > 0) {
+                activeSegment.seal();
+            }
+
+            for (LogSegment segment : segments.values()) {
+                segment.close();
+            }
+        } catch (IOException e) {
+            LushRewards.getInstance().getLogger().log(Level.SEVERE, "Failed to close log segments: ", e);
+        } finally {
+            segments.clear();
+            activeSegment = null;
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public JsonObject loadModuleUserDataJson(UUID uuid, String moduleId) {
+        Integer slot = moduleSlots.get(moduleId != null ? moduleId : MAIN_MODULE_ID);
+        if (slot == null) {
+            return null;
+        }
+
+        // Retried as the segment may be compacted whilst it is being read
+        for (int attempt = 0; attempt < 3; attempt++) {
+            long pointer = getPointer(uuid, slot);
+            if (pointer == 0) {
+                return null;
+            }
+
+            LogSegment segment = segments.get(getSegmentId(pointer));
+            if (segment == null) {
+                continue;
+            }
+
+            try {
+                byte[] payload = segment.read(getOffset(pointer)).payload();
+                return JsonParser.parseString(new String(payload, StandardCharsets.UTF_8)).getAsJsonObject();
+            } catch (ClosedChannelException ignored) {
+                // The segment was compacted, the index will now point to the record's new location
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        throw new IllegalStateException("Failed to read user data for '" + uuid + "' after repeated attempts");
+    }
+
+    @Override
+    public void saveModuleUserData(UserDataModule.UserData userData) {
+        saveModuleUserData(List.of(userData));
+    }
+
+    @Override
+    public void saveModuleUserData(Collection<UserDataModule.UserData> userDataList) {
+        writeLock.lock();
+        try {
+            for (UserDataModule.UserData userData : userDataList) {
+                JsonObject json = userData.asJson();
+                if (json == null) {
+                    throw new NullPointerException("JsonObject cannot be null when saving");
+                }
+
+                String moduleId = userData.getModuleId() != null ? userData.getModuleId() : MAIN_MODULE_ID;
+                append(userData.getUniqueId(), moduleId, json.toString().getBytes(StandardCharsets.UTF_8));
+            }
+
+            activeSegment.force();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to append user data", e);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public Iterator<UUID> loadUserIds(@Nullable UUID after) {
+        return sortUserIds(index.keySet().stream().map(UUID::toString), after);
+    }
+
+    @Override
+    public Map<String, String> getMetrics() {
+        Map<String, String> metrics = super.getMetrics();
+        metrics.put("Indexed users", String.valueOf(index.size()));
+        metrics.put("Log segments", String.valueOf(segments.size()));
+
+        long dataSize = 0;
+        long liveBytes = 0;
+        for (LogSegment segment : segments.values()) {
+            dataSize += segment.getDataSize();
+            liveBytes += segment.getLiveBytes();
+        }
+        metrics.put("Log size (live/total)", (liveBytes / 1024) + "KiB/" + (dataSize / 1024) + "KiB");
+
+        return metrics;
+    }
+
+    private void loadSegments() throws IOException {
+        TreeMap<Integer, File> files = new TreeMap<>();
+        File[] logFiles = logDir.listFiles();
+        if (logFiles != null) {
+            for (File file : logFiles) {
+                Matcher matcher = SEGMENT_NAME.matcher(file.getName());
+                if (matcher.matches()) {
+                    files.put(Integer.parseInt(matcher.group(1)), file);
+                }
+            }
+        }
+
+        // Segments are loaded in order so that newer records replace older ones in the index
+        for (Map.Entry<Integer, File> entry : files.entrySet()) {
+            LogSegment segment = LogSegment.open(entry.getKey(), entry.getValue());
+            segments.put(segment.getId(), segment);
+
+            if (segment.isSealed()) {
+                for (LogSegment.FooterEntry footerEntry : segment.readFooter()) {
+                    updateIndex(footerEntry.uuid(), footerEntry.moduleId(), toPointer(segment.getId(), footerEntry.offset(), footerEntry.length()));
+                }
+            } else {
+                for (LogSegment.LogRecord record : segment.scan()) {
+                    updateIndex(record.uuid(), record.moduleId(), toPointer(segment.getId(), record.offset(), record.length()));
+                }
+
+                if (!entry.getKey().equals(files.lastKey())) {
+                    segment.seal();
+                }
+            }
+        }
+
+        LogSegment lastSegment = segments.isEmpty() ? null : segments.lastEntry().getValue();
+        if (lastSegment != null && !lastSegment.isSealed()) {
+            activeSegment = lastSegment;
+        } else {
+            rollSegment();
+        }
+    }
+
+    /**
+     * Rewrites the live records of mostly obsolete segments into the active segment and then deletes them
+     */
+    private void compact() {
+        for (LogSegment segment : segments.values()) {
+            if (!segment.isSealed() || segment == activeSegment || segment.getDataSize() == 0) {
+                continue;
+            }
+
+            double garbageRatio = 1 - (segment.getLiveBytes() / (double) segment.getDataSize());
+            if (garbageRatio < compactionThreshold) {
+                continue;
+            }
+
+            try {
+                int moved = 0;
+                for (LogSegment.FooterEntry footerEntry : segment.readFooter()) {
+                    long pointer = toPointer(segment.getId(), footerEntry.offset(), footerEntry.length());
+                    Integer slot = moduleSlots.get(footerEntry.moduleId());
+                    if (slot == null || getPointer(footerEntry.uuid(), slot) != pointer) {
+                        continue;
+                    }
+
+                    byte[] payload = segment.read(footerEntry.offset()).payload();
+                    writeLock.lock();
+                    try {
+                        // Checked again whilst holding the lock as the record may have been replaced since it was read,
+                        // every record in a segment is listed when it is reopened so a replaced record must never be written
+                        if (getPointer(footerEntry.uuid(), slot) != pointer) {
+                            continue;
+                        }
+
+                        append(footerEntry.uuid(), footerEntry.moduleId(), payload);
+                        moved++;
+                    } finally {
+                        writeLock.unlock();
+                    }
+                }
+
+                writeLock.lock();
+                try {
+                    activeSegment.force();
+                    segments.remove(segment.getId());
+                } finally {
+                    writeLock.unlock();
+                }
+
+                segment.close();
+                if (!segment.getFile().delete()) {
+                    LushRewards.getInstance().getLogger().warning("Failed to delete compacted log segment '" + segment.getFile().getName() + "'");
+                }
+
+                LushRewards.getInstance().getLogger().info("Compacted log segment " + segment.getId() + " (moved " + moved + " records)");
+            } catch (IOException e) {
+                LushRewards.getInstance().getLogger().log(Level.SEVERE, "Failed to compact log segment " + segment.getId() + ": ", e);
+            }
+        }
+    }
+
+    /**
+     * Append a record to the active segment and index it, must be called whilst holding the write lock
+     */
+    private void append(UUID uuid, String moduleId, byte[] payload) throws IOException {
+        int length = LogSegment.getRecordLength(moduleId, payload);
+        if (length > MAX_RECORD_LENGTH) {
+            throw new IOException("User data for '" + uuid + "' exceeds the maximum record length of " + MAX_RECORD_LENGTH + " bytes");
+        }
+
+        if (activeSegment.getDataSize() + length > segmentSize) {
+            rollSegment();
+        }
+
+        long offset = activeSegment.append(uuid, moduleId, payload);
+        updateIndex(uuid, moduleId, toPointer(activeSegment.getId(), offset, length));
+    }
+
+    private void rollSegment() throws IOException {
+        if (activeSegment != null) {
+            activeSegment.seal();
+        }
+
+        int id = segments.isEmpty() ? 1 : segments.lastKey() + 1;
+        if (id > 0xFFFF) {
+            throw new IOException("Maximum number of log segments reached");
+        }
+
+        activeSegment = LogSegment.open(id, new File(logDir, "segment-" + id + ".log"));
+        segments.put(id, activeSegment);
+    }
+
+    private void updateIndex(UUID uuid, String moduleId, long pointer) {
+        int slot = moduleSlots.computeIfAbsent(moduleId, (ignored) -> moduleSlots.size());
+
+        index.compute(uuid, (ignored, pointers) -> {
+            long[] newPointers = pointers == null ? new long[slot + 1] : Arrays.copyOf(pointers, Math.max(pointers.length, slot + 1));
+            long previousPointer = newPointers[slot];
+            if (previousPointer != 0) {
+                LogSegment previousSegment = segments.get(getSegmentId(previousPointer));
+                if (previousSegment != null) {
+                    previousSegment.addLiveBytes(-getLength(previousPointer));
+                }
+            }
+
+            LogSegment segment = segments.get(getSegmentId(pointer));
+            if (segment != null) {
+                segment.addLiveBytes(getLength(pointer));
+            }
+
+            newPointers[slot] = pointer;
+            return newPointers;
+        });
+    }
+
+    private long getPointer(UUID uuid, int slot) {
+        long[] pointers = index.get(uuid);
+        return pointers != null && slot < pointers.length ? pointers[slot] : 0;
+    }
+
+    private static long toPointer(int segmentId, long offset, int length) {
+        return ((long) segmentId << 48) | (offset << 20) | length;
+    }
+
+    private static int getSegmentId(long pointer) {
+        return (int) (pointer >>> 48);
+    }
+
+    private static long getOffset(long pointer) {
+        return (pointer >>> 20) & MAX_SEGMENT_SIZE;
+    }
+
+    private static int getLength(long pointer) {
+        return (int) (pointer & MAX_RECORD_LENGTH);
+    }
+}
@@ -6,20 +6,48 @@ import org.bukkit.configuration.ConfigurationSection;
 import org.lushplugins.lushrewards.LushRewards;
 
 import javax.sql.DataSource;
+import java.nio.ByteBuffer;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.UUID;
 import java.util.logging.Level;
+import java.util.stream.Collectors;
 
 public class MySQLStorage extends AbstractSQLStorage {
 
     @Override
-    protected String getInsertOrUpdateStatement(String table, String column) {
-        return MessageFormat.format(
-            "INSERT INTO `{0}` (uuid, `{1}`) VALUES (?, ?) ON DUPLICATE KEY UPDATE `{1}` = VALUES(`{1}`);",
-            table, column
+    protected String getInsertOrUpdateStatement(String table, List<String> keyColumns, List<String> columns) {
+        List<String> allColumns = new ArrayList<>(keyColumns);
+        allColumns.addAll(columns);
+
+        return String.format(
+            "INSERT INTO `%s` (%s) VALUES (%s) ON DUPLICATE KEY UPDATE %s;",
+            table,
+            allColumns.stream().map(column -> "`" + column + "`").collect(Collectors.joining(", ")),
+            String.join(", ", Collections.nCopies(allColumns.size(), "?")),
+            columns.stream().map(column -> MessageFormat.format("`{0}` = VALUES(`{0}`)", column)).collect(Collectors.joining(", "))
+        );
+    }
+
+    @Override
+    protected String getInsertIfAbsentStatement(String table, List<String> keyColumns, List<String> columns) {
+        List<String> allColumns = new ArrayList<>(keyColumns);
+        allColumns.addAll(columns);
+
+        // Updating a key column to itself leaves the existing row unchanged without ignoring other errors
+        return String.format(
+            "INSERT INTO `%s` (%s) VALUES (%s) ON DUPLICATE KEY UPDATE `%s` = `%s`;",
+            table,
+            allColumns.stream().map(column -> "`" + column + "`").collect(Collectors.joining(", ")),
+            String.join(", ", Collections.nCopies(allColumns.size(), "?")),
+            keyColumns.get(0),
+            keyColumns.get(0)
         );
     }
 
@@ -28,30 +56,58 @@ public class MySQLStorage extends AbstractSQLStorage {
         stmt.setString(index, uuid.toString());
     }
 
+    @Override
+    protected void setBinaryUUIDToStatement(PreparedStatement stmt, int index, UUID uuid) throws SQLException {
+        stmt.setBytes(index, ByteBuffer.allocate(16)
+            .putLong(uuid.getMostSignificantBits())
+            .putLong(uuid.getLeastSignificantBits())
+            .array());
+    }
+
+    @Override
+    protected UUID getBinaryUUIDFromResultSet(ResultSet resultSet, int index) throws SQLException {
+        ByteBuffer buffer = ByteBuffer.wrap(resultSet.getBytes(index));
+        return new UUID(buffer.getLong(), buffer.getLong());
+    }
+
+    @Override
+    protected String getUUIDType() {
+        return "BINARY(16)";
+    }
+
+    @Override
+    protected String getBinaryType() {
+        return "BLOB";
+    }
+
     @Override
     protected void setJsonToStatement(PreparedStatement stmt, int index, JsonObject json) throws SQLException {
         stmt.setString(index, json.toString());
     }
 
     @SuppressWarnings("SameParameterValue")
-    protected void assertColumn(String table, String column, String type) {
+    protected boolean assertColumn(String table, String column, String type) {
         assertTable(table);
 
         try (Connection conn = conn();
-             PreparedStatement stmt = conn.prepareStatement(String.format("SELECT `%s` FROM `%s`", column, table))
+             PreparedStatement stmt = conn.prepareStatement(String.format("SELECT `%s` FROM `%s` WHERE 1 = 0", column, table))
         ) {
             stmt.executeQuery();
+            return true;
         } catch (SQLException assertException) {
             if (assertException.getErrorCode() == 1054) { // Undefined column error code
                 try (Connection conn = conn(); PreparedStatement stmt = conn.prepareStatement(
                     String.format("ALTER TABLE `%s` ADD COLUMN `%s` %s;", table, column, type)
                 )) {
                     stmt.execute();
+                    return true;
                 } catch (SQLException alterException) {
                     LushRewards.getInstance().getLogger().log(Level.SEVERE, "Failed to create column: ", alterException);
+                    return false;
                 }
             } else {
                 LushRewards.getInstance().getLogger().log(Level.SEVERE, "Failed to assert column: ", assertException);
+                return false;
             }
         }
     }
@@ -72,6 +128,6 @@ public class MySQLStorage extends AbstractSQLStorage {
         dataSource.setUser(config.getString("user"));
         dataSource.setPassword(config.getString("password"));
 
-        return dataSource;
+        return createPooledDataSource(dataSource, config);
     }
 }
@@ -9,20 +9,27 @@ import org.postgresql.util.PGobject;
 import javax.sql.DataSource;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Objects;
 import java.util.UUID;
 import java.util.logging.Level;
+import java.util.stream.Collectors;
 
 public class PostgreSQLStorage extends AbstractSQLStorage {
 
     @Override
-    protected String getInsertOrUpdateStatement(String table, String column) {
-        return MessageFormat.format(
-            "INSERT INTO `{0}`(uuid, `{1}`) VALUES(?, ?) ON CONFLICT (uuid) DO UPDATE SET `{1}` = EXCLUDED.`{1}`;",
-            table, column
-        );
+    protected String getInsertOrUpdateStatement(String table, List<String> keyColumns, List<String> columns) {
+        return formatInsertOrUpdateStatement(table, keyColumns, columns);
+    }
+
+    @Override
+    protected String getInsertIfAbsentStatement(String table, List<String> keyColumns, List<String> columns) {
+        return formatInsertIfAbsentStatement(table, keyColumns, columns);
     }
 
     @Override
@@ -30,6 +37,26 @@ public class PostgreSQLStorage extends AbstractSQLStorage {
         stmt.setObject(index, uuid);
     }
 
+    @Override
+    protected void setBinaryUUIDToStatement(PreparedStatement stmt, int index, UUID uuid) throws SQLException {
+        stmt.setObject(index, uuid);
+    }
+
+    @Override
+    protected UUID getBinaryUUIDFromResultSet(ResultSet resultSet, int index) throws SQLException {
+        return resultSet.getObject(index, UUID.class);
+    }
+
+    @Override
+    protected String getUUIDType() {
+        return "UUID";
+    }
+
+    @Override
+    protected String getBinaryType() {
+        return "BYTEA";
+    }
+
     @Override
     protected void setJsonToStatement(PreparedStatement stmt, int index, JsonObject json) throws SQLException {
         PGobject pgObject = new PGobject();
@@ -39,33 +66,67 @@ public class PostgreSQLStorage extends AbstractSQLStorage {
     }
 
     @Override
-    protected void assertJsonColumn(String table, String column) {
-        assertColumn(table, column, "JSONB");
+    protected boolean assertJsonColumn(String table, String column) {
+        return assertColumn(table, column, "JSONB");
     }
 
     @Override
-    protected void assertColumn(String table, String column, String type) {
+    protected boolean assertColumn(String table, String column, String type) {
         assertTable(table);
 
         try (Connection conn = conn();
-             PreparedStatement stmt = conn.prepareStatement(String.format("SELECT `%s` FROM `%s`", column, table))
+             PreparedStatement stmt = conn.prepareStatement(String.format("SELECT `%s` FROM `%s` WHERE 1 = 0", column, table))
         ) {
             stmt.executeQuery();
+            return true;
         } catch (SQLException assertException) {
             if (Objects.equals(assertException.getSQLState(), "42703")) { // Undefined column error code
                 try (Connection conn = conn();
                      PreparedStatement stmt = conn.prepareStatement(String.format("ALTER TABLE `%s` ADD COLUMN `%s` %s;", table, column, type))
                 ) {
                     stmt.execute();
+                    return true;
                 } catch (SQLException alterException) {
                     LushRewards.getInstance().log(Level.SEVERE, "Error while alter column", alterException);
+                    return false;
                 }
             } else {
                 LushRewards.getInstance().log(Level.SEVERE, "Error while asserting column", assertException);
+                return false;
             }
         }
     }
 
+    /**
+     * Formats an upsert using 'ON CONFLICT', which is shared by Postgres and SQLite
+     */
+    static String formatInsertOrUpdateStatement(String table, List<String> keyColumns, List<String> columns) {
+        List<String> allColumns = new ArrayList<>(keyColumns);
+        allColumns.addAll(columns);
+
+        return String.format(
+            "INSERT INTO `%s`(%s) VALUES(%s) ON CONFLICT (%s) DO UPDATE SET %s;",
+            table,
+            allColumns.stream().map(column -> "`" + column + "`").collect(Collectors.joining(", ")),
+            String.join(", ", Collections.nCopies(allColumns.size(), "?")),
+            keyColumns.stream().map(column -> "`" + column + "`").collect(Collectors.joining(", ")),
+            columns.stream().map(column -> MessageFormat.format("`{0}` = EXCLUDED.`{0}`", column)).collect(Collectors.joining(", "))
+        );
+    }
+
+    static String formatInsertIfAbsentStatement(String table, List<String> keyColumns, List<String> columns) {
+        List<String> allColumns = new ArrayList<>(keyColumns);
+        allColumns.addAll(columns);
+
+        return String.format(
+            "INSERT INTO `%s`(%s) VALUES(%s) ON CONFLICT (%s) DO NOTHING;",
+            table,
+            allColumns.stream().map(column -> "`" + column + "`").collect(Collectors.joining(", ")),
+            String.join(", ", Collections.nCopies(allColumns.size(), "?")),
+            keyColumns.stream().map(column -> "`" + column + "`").collect(Collectors.joining(", "))
+        );
+    }
+
     @Override
     protected String formatHeader(String string) {
         return string.replace("-", "_");
@@ -81,6 +142,6 @@ public class PostgreSQLStorage extends AbstractSQLStorage {
         dataSource.setPassword(config.getString("password"));
         dataSource.setCurrentSchema(config.getString("schema"));
 
-        return dataSource;
+        return createPooledDataSource(dataSource, config);
     }
 }
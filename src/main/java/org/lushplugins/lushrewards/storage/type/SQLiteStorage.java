@@ -9,55 +9,99 @@ import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
-import java.text.MessageFormat;
+import java.sql.Statement;
+import java.util.List;
+import java.util.Map;
 import java.util.logging.Level;
 
 public class SQLiteStorage extends MySQLStorage {
     private static final String DATABASE_PATH = new File(LushRewards.getInstance().getDataFolder(), "data.db").getAbsolutePath();
 
     @Override
-    protected String getInsertOrUpdateStatement(String table, String column) {
-        return MessageFormat.format(
-            "INSERT INTO `{0}`(uuid, `{1}`) VALUES(?, ?) ON CONFLICT (uuid) DO UPDATE SET `{1}` = EXCLUDED.`{1}`;",
-            table, column
-        );
+    protected String getInsertOrUpdateStatement(String table, List<String> keyColumns, List<String> columns) {
+        return PostgreSQLStorage.formatInsertOrUpdateStatement(table, keyColumns, columns);
     }
 
     @Override
-    protected Connection conn() {
-        try {
-            return DriverManager.getConnection("jdbc:sqlite:" + DATABASE_PATH);
-        } catch (SQLException e) {
-            LushRewards.getInstance().log(Level.SEVERE, "An error occurred whilst getting a connection: ", e);
-            return null;
-        }
+    protected String getInsertIfAbsentStatement(String table, List<String> keyColumns, List<String> columns) {
+        return PostgreSQLStorage.formatInsertIfAbsentStatement(table, keyColumns, columns);
     }
 
     @Override
-    protected void assertColumn(String table, String column, String type) {
+    public int getMaximumThreads() {
+        // All access goes through a single shared connection
+        return 1;
+    }
+
+    @Override
+    protected boolean assertColumn(String table, String column, String type) {
         assertTable(table);
 
         try (Connection conn = conn();
-             PreparedStatement stmt = conn.prepareStatement(String.format("SELECT `%s` FROM `%s`", column, table))
+             PreparedStatement stmt = conn.prepareStatement(String.format("SELECT `%s` FROM `%s` WHERE 1 = 0", column, table))
         ) {
             stmt.executeQuery();
+            return true;
         } catch (SQLException assertException) {
             if (assertException.getMessage().contains("no such column")) { // Undefined column error code
                 try (Connection conn = conn(); PreparedStatement stmt = conn.prepareStatement(
                     String.format("ALTER TABLE `%s` ADD COLUMN `%s` %s;", table, column, type)
                 )) {
                     stmt.execute();
+                    return true;
                 } catch (SQLException alterException) {
                     LushRewards.getInstance().getLogger().log(Level.SEVERE, "Failed to create column: ", alterException);
+                    return false;
                 }
             } else {
                 LushRewards.getInstance().getLogger().log(Level.SEVERE, "Failed to assert column: ", assertException);
+                return false;
             }
         }
     }
 
+    @Override
+    public Map<String, String> getMetrics() {
+        Map<String, String> metrics = super.getMetrics();
+        if (getDataSource() instanceof SingleConnectionDataSource dataSource) {
+            metrics.put("Cached statements", String.valueOf(dataSource.getCachedStatementCount()));
+        }
+
+        return metrics;
+    }
+
     @Override
     protected DataSource setupDataSource(ConfigurationSection config) {
-        return null;
+        ConfigurationSection sqliteSection = config != null ? config.getConfigurationSection("sqlite") : null;
+        String journalMode = getPragmaValue(sqliteSection, "journal-mode", "WAL");
+        String synchronous = getPragmaValue(sqliteSection, "synchronous", "NORMAL");
+        long mmapSize = sqliteSection != null ? sqliteSection.getLong("mmap-size", 268435456) : 268435456;
+        long cacheSize = sqliteSection != null ? sqliteSection.getLong("cache-size", 16384) : 16384;
+        int busyTimeout = sqliteSection != null ? sqliteSection.getInt("busy-timeout", 5000) : 5000;
+
+        return new SingleConnectionDataSource(() -> {
+            Connection conn = DriverManager.getConnection("jdbc:sqlite:" + DATABASE_PATH);
+
+            try (Statement stmt = conn.createStatement()) {
+                stmt.execute("PRAGMA journal_mode = " + journalMode + ";");
+                stmt.execute("PRAGMA synchronous = " + synchronous + ";");
+                stmt.execute("PRAGMA mmap_size = " + mmapSize + ";");
+                // Negative values are interpreted as KiB rather than pages
+                stmt.execute("PRAGMA cache_size = -" + cacheSize + ";");
+                stmt.execute("PRAGMA busy_timeout = " + busyTimeout + ";");
+            }
+
+            return conn;
+        });
+    }
+
+    private static String getPragmaValue(ConfigurationSection config, String path, String def) {
+        String value = config != null ? config.getString(path, def) : def;
+        if (!value.matches("[A-Za-z]+")) {
+            LushRewards.getInstance().getLogger().warning("Invalid value '" + value + "' at 'storage.sqlite." + path + "', defaulting to '" + def + "'");
+            return def;
+        }
+
+        return value.toUpperCase();
     }
 }
@@ -0,0 +1,213 @@
+package org.lushplugins.lushrewards.storage.type;
+
+import javax.sql.DataSource;
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.*;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Logger;
+
+/**
+ * A data source backed by a single long-lived connection, the connection is lent to one thread at a time
+ * and prepared statements are cached and reused between borrowers
+ * <p>
+ * Only the most recently used statements are kept, statements that fall out of the cache are closed
+ */
+public class SingleConnectionDataSource implements DataSource, AutoCloseable {
+    private static final int MAX_CACHED_STATEMENTS = 64;
+
+    private final ConnectionFactory connectionFactory;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Map<String, PreparedStatement> statementCache = new LinkedHashMap<>(16, 0.75F, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+            if (size() <= MAX_CACHED_STATEMENTS) {
+                return false;
+            }
+
+            try {
+                eldest.getValue().close();
+            } catch (SQLException ignored) {
+                // The statement is no longer used, failing to close it early is not an issue
+            }
+
+            return true;
+        }
+    };
+    private Connection connection;
+
+    public SingleConnectionDataSource(ConnectionFactory connectionFactory) {
+        this.connectionFactory = connectionFactory;
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        lock.lock();
+
+        try {
+            if (connection == null || connection.isClosed()) {
+                statementCache.clear();
+                connection = connectionFactory.open();
+            }
+
+            return borrowConnection();
+        } catch (SQLException | RuntimeException e) {
+            lock.unlock();
+            throw e;
+        }
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        return getConnection();
+    }
+
+    @Override
+    public void close() throws SQLException {
+        lock.lock();
+
+        try {
+            for (PreparedStatement statement : statementCache.values()) {
+                statement.close();
+            }
+            statementCache.clear();
+
+            if (connection != null) {
+                connection.close();
+                connection = null;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getCachedStatementCount() {
+        return statementCache.size();
+    }
+
+    private Connection borrowConnection() {
+        Connection delegate = connection;
+        boolean[] released = {false};
+
+        return (Connection) Proxy.newProxyInstance(getClass().getClassLoader(), new Class[]{Connection.class}, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "close" -> {
+                    if (!released[0]) {
+                        released[0] = true;
+
+                        try {
+                            if (!delegate.isClosed() && !delegate.getAutoCommit()) {
+                                delegate.rollback();
+                                delegate.setAutoCommit(true);
+                            }
+                        } finally {
+                            lock.unlock();
+                        }
+                    }
+
+                    return null;
+                }
+                case "isClosed" -> {
+                    return released[0] || delegate.isClosed();
+                }
+                case "prepareStatement" -> {
+                    if (released[0]) {
+                        throw new SQLException("Connection has already been closed");
+                    }
+
+                    if (args.length == 1) {
+                        return getCachedStatement(delegate, (String) args[0]);
+                    }
+                }
+            }
+
+            return invoke(delegate, method, args);
+        });
+    }
+
+    private PreparedStatement getCachedStatement(Connection delegate, String sql) throws SQLException {
+        PreparedStatement statement = statementCache.get(sql);
+        if (statement == null || statement.isClosed()) {
+            statement = delegate.prepareStatement(sql);
+            statementCache.put(sql, statement);
+        }
+
+        PreparedStatement cachedStatement = statement;
+        ResultSet[] lastResultSet = {null};
+
+        return (PreparedStatement) Proxy.newProxyInstance(getClass().getClassLoader(), new Class[]{PreparedStatement.class}, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "close" -> {
+                    // Cached statements are reset rather than closed, open result sets would otherwise hold a read lock
+                    if (lastResultSet[0] != null) {
+                        lastResultSet[0].close();
+                        lastResultSet[0] = null;
+                    }
+
+                    cachedStatement.clearParameters();
+                    cachedStatement.clearBatch();
+                    return null;
+                }
+                case "executeQuery" -> {
+                    ResultSet resultSet = (ResultSet) invoke(cachedStatement, method, args);
+                    lastResultSet[0] = resultSet;
+                    return resultSet;
+                }
+            }
+
+            return invoke(cachedStatement, method, args);
+        });
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    @Override
+    public PrintWriter getLogWriter() {
+        return null;
+    }
+
+    @Override
+    public void setLogWriter(PrintWriter out) {}
+
+    @Override
+    public void setLoginTimeout(int seconds) {}
+
+    @Override
+    public int getLoginTimeout() {
+        return 0;
+    }
+
+    @Override
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        throw new SQLFeatureNotSupportedException();
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        if (iface.isInstance(this)) {
+            return iface.cast(this);
+        }
+
+        throw new SQLException("Cannot unwrap to " + iface.getName());
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface) {
+        return iface.isInstance(this);
+    }
+
+    @FunctionalInterface
+    public interface ConnectionFactory {
+        Connection open() throws SQLException;
+    }
+}
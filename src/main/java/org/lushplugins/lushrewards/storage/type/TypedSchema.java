@@ -0,0 +1,574 @@
+package org.lushplugins.lushrewards.storage.type;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.jetbrains.annotations.Nullable;
+import org.lushplugins.lushlib.module.Module;
+import org.lushplugins.lushrewards.LushRewards;
+import org.lushplugins.lushrewards.module.UserDataModule;
+import org.lushplugins.lushrewards.module.dailyrewards.CollectedDays;
+import org.lushplugins.lushrewards.module.dailyrewards.DailyRewardsModule;
+import org.lushplugins.lushrewards.module.playtimerewards.PlaytimeRewardsModule;
+import org.lushplugins.lushrewards.storage.StorageExecutor;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.logging.Level;
+import java.util.stream.Collectors;
+
+/**
+ * Stores the user data of the built-in modules in typed columns rather than json so that it can be indexed and queried
+ * <p>
+ * User data is still passed to and from storage as json, fields are mapped to their columns by name.
+ * Modules without a typed table continue to use the json columns. Whilst a module's data is being copied into its
+ * typed table it is read from the json columns and written to both
+ */
+public class TypedSchema {
+    private static final int MIGRATION_BATCH_SIZE = 500;
+    private static final String MIGRATIONS_TABLE_NAME = "lushrewards_typed_migrations";
+    private static final TypedTable USERS_TABLE = new TypedTable("lushrewards_typed_users", false,
+        List.of(
+            new TypedColumn("username", "username", ColumnType.STRING),
+            new TypedColumn("minutes_played", "minutesPlayed", ColumnType.INTEGER)
+        ),
+        List.of(new TypedIndex("lushrewards_typed_users_minutes_played", "minutes_played"))
+    );
+    private static final TypedTable DAILY_REWARDS_TABLE = new TypedTable("lushrewards_typed_daily_rewards", true,
+        List.of(
+            new TypedColumn("day_num", "dayNum", ColumnType.INTEGER),
+            new TypedColumn("streak", "streak", ColumnType.INTEGER),
+            new TypedColumn("highest_streak", "highestStreak", ColumnType.INTEGER),
+            new TypedColumn("start_date", "startDate", ColumnType.DATE),
+            new TypedColumn("last_join_date", "lastJoinDate", ColumnType.DATE),
+            new TypedColumn("last_collected_date", "lastCollectedDate", ColumnType.DATE),
+            new TypedColumn("collected_days", "collectedDays", ColumnType.DAYS)
+        ),
+        List.of(
+            new TypedIndex("lushrewards_typed_daily_rewards_streak", "module_id, streak"),
+            new TypedIndex("lushrewards_typed_daily_rewards_highest_streak", "module_id, highest_streak")
+        )
+    );
+    private static final TypedTable PLAYTIME_REWARDS_TABLE = new TypedTable("lushrewards_typed_playtime_rewards", true,
+        List.of(
+            new TypedColumn("last_collected_playtime", "lastCollectedPlaytime", ColumnType.INTEGER),
+            new TypedColumn("start_date", "startDate", ColumnType.DATE),
+            new TypedColumn("previous_day_end_playtime", "previousDayEndPlaytime", ColumnType.INTEGER)
+        ),
+        List.of()
+    );
+
+    private final AbstractSQLStorage storage;
+    private final Map<TypedTable, String> selectStatements = new HashMap<>();
+    private final Map<TypedTable, String> upsertStatements = new HashMap<>();
+    private final Map<TypedTable, String> insertIfAbsentStatements = new HashMap<>();
+    private final String migrationUpsertStatement;
+    private final Set<String> migratedTables = ConcurrentHashMap.newKeySet();
+    private final Set<String> migratingTables = ConcurrentHashMap.newKeySet();
+    private final Queue<Migration> pendingMigrations = new ConcurrentLinkedQueue<>();
+
+    public TypedSchema(AbstractSQLStorage storage) {
+        this.storage = storage;
+        this.migrationUpsertStatement = storage.getInsertOrUpdateStatement(MIGRATIONS_TABLE_NAME, List.of("id"), List.of("last_uuid", "completed"));
+
+        for (TypedTable table : List.of(USERS_TABLE, DAILY_REWARDS_TABLE, PLAYTIME_REWARDS_TABLE)) {
+            List<String> columns = table.columns().stream().map(TypedColumn::name).toList();
+
+            selectStatements.put(table, String.format("SELECT %s FROM `%s` WHERE %s;",
+                columns.stream().map(column -> "`" + column + "`").collect(Collectors.joining(", ")),
+                table.name(),
+                table.perModule() ? "uuid = ? AND module_id = ?" : "uuid = ?"));
+            upsertStatements.put(table, storage.getInsertOrUpdateStatement(table.name(), table.getKeyColumns(), columns));
+            insertIfAbsentStatements.put(table, storage.getInsertIfAbsentStatement(table.name(), table.getKeyColumns(), columns));
+        }
+    }
+
+    public void enable() {
+        for (TypedTable table : List.of(USERS_TABLE, DAILY_REWARDS_TABLE, PLAYTIME_REWARDS_TABLE)) {
+            assertTable(table);
+        }
+
+        if (assertMigrationsTable()) {
+            prepareMigrations();
+        }
+    }
+
+    /**
+     * Start copying json data into the typed tables that have not been populated, each batch is run as its own
+     * storage operation so that other operations are not held up whilst data is copied
+     */
+    public void startMigrations(StorageExecutor executor) {
+        submitNextMigration(executor);
+    }
+
+    /**
+     * @return The typed table that stores this module's user data, or null if it should be stored as json
+     */
+    public @Nullable TypedTable getTable(@Nullable String moduleId) {
+        TypedTable table = findTable(moduleId);
+        return table != null && migratedTables.contains(getMigrationId(table, moduleId)) ? table : null;
+    }
+
+    /**
+     * @return The typed table that is being populated for this module, saves must also be written to this table
+     * whilst it is being populated. Null if the module's data is not being migrated
+     */
+    public @Nullable TypedTable getMigratingTable(@Nullable String moduleId) {
+        TypedTable table = findTable(moduleId);
+        return table != null && migratingTables.contains(getMigrationId(table, moduleId)) ? table : null;
+    }
+
+    /**
+     * @return The typed table for this module whether or not its data has been migrated
+     */
+    private @Nullable TypedTable findTable(@Nullable String moduleId) {
+        if (moduleId == null) {
+            return USERS_TABLE;
+        }
+
+        Module module = LushRewards.getInstance().getModule(moduleId).orElse(null);
+        if (module instanceof DailyRewardsModule) {
+            return DAILY_REWARDS_TABLE;
+        } else if (module instanceof PlaytimeRewardsModule) {
+            return PLAYTIME_REWARDS_TABLE;
+        } else {
+            return null;
+        }
+    }
+
+    public JsonObject load(Connection conn, TypedTable table, UUID uuid, @Nullable String moduleId) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement(selectStatements.get(table))) {
+            storage.setBinaryUUIDToStatement(stmt, 1, uuid);
+            if (table.perModule()) {
+                stmt.setString(2, moduleId);
+            }
+
+            ResultSet resultSet = stmt.executeQuery();
+            if (!resultSet.next()) {
+                return null;
+            }
+
+            JsonObject json = new JsonObject();
+            for (int i = 0; i < table.columns().size(); i++) {
+                readColumn(resultSet, i + 1, table.columns().get(i), json);
+            }
+
+            return json;
+        }
+    }
+
+    /**
+     * @see AbstractSQLStorage#loadUserIds(UUID)
+     */
+    public List<UUID> loadUserIds(Connection conn, @Nullable UUID after, int limit) throws SQLException {
+        // Binary and native uuids are both ordered byte by byte, which matches the order of their string form
+        String statement = after != null
+            ? String.format("SELECT uuid FROM `%s` WHERE uuid > ? ORDER BY uuid LIMIT ?;", USERS_TABLE.name())
+            : String.format("SELECT uuid FROM `%s` ORDER BY uuid LIMIT ?;", USERS_TABLE.name());
+
+        try (PreparedStatement stmt = conn.prepareStatement(statement)) {
+            int index = 1;
+            if (after != null) {
+                storage.setBinaryUUIDToStatement(stmt, index++, after);
+            }
+            stmt.setInt(index, limit);
+
+            List<UUID> uuids = new ArrayList<>();
+            ResultSet resultSet = stmt.executeQuery();
+            while (resultSet.next()) {
+                uuids.add(storage.getBinaryUUIDFromResultSet(resultSet, 1));
+            }
+
+            return uuids;
+        }
+    }
+
+    public void save(Connection conn, TypedTable table, Collection<UserDataModule.UserData> userDataList) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement(upsertStatements.get(table))) {
+            for (UserDataModule.UserData userData : userDataList) {
+                JsonObject json = userData.asJson();
+                if (json == null) {
+                    LushRewards.getInstance().getLogger().warning("Skipped saving user data for '" + userData.getUniqueId() + "', JsonObject cannot be null when saving");
+                    continue;
+                }
+
+                setRow(stmt, table, userData.getUniqueId(), userData.getModuleId(), json);
+                stmt.addBatch();
+            }
+
+            stmt.executeBatch();
+        }
+    }
+
+    private void setRow(PreparedStatement stmt, TypedTable table, UUID uuid, @Nullable String moduleId, JsonObject json) throws SQLException {
+        int index = 1;
+        storage.setBinaryUUIDToStatement(stmt, index++, uuid);
+        if (table.perModule()) {
+            stmt.setString(index++, moduleId);
+        }
+
+        for (TypedColumn column : table.columns()) {
+            setColumn(stmt, index++, column, json.get(column.field()));
+        }
+    }
+
+    private void setColumn(PreparedStatement stmt, int index, TypedColumn column, @Nullable JsonElement value) throws SQLException {
+        if (value == null || value.isJsonNull()) {
+            stmt.setNull(index, switch (column.type()) {
+                case INTEGER -> Types.INTEGER;
+                case STRING -> Types.VARCHAR;
+                case DATE -> Types.DATE;
+                case DAYS -> Types.BINARY;
+            });
+            return;
+        }
+
+        switch (column.type()) {
+            case INTEGER -> stmt.setInt(index, value.getAsInt());
+            case STRING -> stmt.setString(index, value.getAsString());
+            case DATE -> stmt.setDate(index, Date.valueOf(LocalDate.parse(value.getAsString())));
+            case DAYS -> stmt.setBytes(index, encodeDays(value));
+        }
+    }
+
+    private void readColumn(ResultSet resultSet, int index, TypedColumn column, JsonObject json) throws SQLException {
+        switch (column.type()) {
+            case INTEGER -> {
+                int value = resultSet.getInt(index);
+                if (!resultSet.wasNull()) {
+                    json.addProperty(column.field(), value);
+                }
+            }
+            case STRING -> {
+                String value = resultSet.getString(index);
+                if (value != null) {
+                    json.addProperty(column.field(), value);
+                }
+            }
+            case DATE -> {
+                Date value = resultSet.getDate(index);
+                if (value != null) {
+                    json.addProperty(column.field(), value.toLocalDate().toString());
+                }
+            }
+            case DAYS -> {
+                byte[] value = resultSet.getBytes(index);
+                if (value != null) {
+                    json.add(column.field(), decodeDays(value));
+                }
+            }
+        }
+    }
+
+    /**
+     * Collected days are stored as a bitset where bit n marks day n as collected
+     */
+    private static byte[] encodeDays(JsonElement days) {
+        return CollectedDays.fromJson(days).toByteArray();
+    }
+
+    private static JsonElement decodeDays(byte[] bytes) {
+        return CollectedDays.valueOf(bytes).toJson();
+    }
+
+    private void assertTable(TypedTable table) {
+        StringJoiner columns = new StringJoiner(", ");
+        columns.add("`uuid` " + storage.getUUIDType() + " NOT NULL");
+        if (table.perModule()) {
+            columns.add("`module_id` VARCHAR(64) NOT NULL");
+        }
+
+        for (TypedColumn column : table.columns()) {
+            columns.add("`" + column.name() + "` " + switch (column.type()) {
+                case INTEGER -> "INT";
+                case STRING -> "VARCHAR(32)";
+                case DATE -> "DATE";
+                case DAYS -> storage.getBinaryType();
+            });
+        }
+
+        columns.add("PRIMARY KEY (" + String.join(", ", table.getKeyColumns()) + ")");
+
+        try (Connection conn = storage.conn()) {
+            try (PreparedStatement stmt = conn.prepareStatement(String.format("CREATE TABLE IF NOT EXISTS `%s`(%s);", table.name(), columns))) {
+                stmt.execute();
+            }
+
+            // Existing indexes are looked up as not every database supports 'CREATE INDEX IF NOT EXISTS'
+            Set<String> existingIndexes = new HashSet<>();
+            DatabaseMetaData metaData = conn.getMetaData();
+            try (ResultSet indexes = metaData.getIndexInfo(conn.getCatalog(), conn.getSchema(), table.name(), false, false)) {
+                while (indexes.next()) {
+                    String indexName = indexes.getString("INDEX_NAME");
+                    if (indexName != null) {
+                        existingIndexes.add(indexName.toLowerCase());
+                    }
+                }
+            }
+
+            for (TypedIndex index : table.indexes()) {
+                if (!existingIndexes.contains(index.name())) {
+                    try (PreparedStatement stmt = conn.prepareStatement(String.format("CREATE INDEX `%s` ON `%s` (%s);", index.name(), table.name(), index.columns()))) {
+                        stmt.execute();
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            LushRewards.getInstance().getLogger().log(Level.SEVERE, "Failed to assert typed table: ", e);
+        }
+    }
+
+    private boolean assertMigrationsTable() {
+        try (Connection conn = storage.conn();
+             PreparedStatement stmt = conn.prepareStatement(String.format("CREATE TABLE IF NOT EXISTS `%s`(`id` VARCHAR(128) NOT NULL, `last_uuid` VARCHAR(36), `completed` INT NOT NULL, PRIMARY KEY (`id`));", MIGRATIONS_TABLE_NAME))
+        ) {
+            stmt.execute();
+            return true;
+        } catch (SQLException e) {
+            LushRewards.getInstance().getLogger().log(Level.SEVERE, "Failed to assert typed migrations table, user data will be stored as json: ", e);
+            return false;
+        }
+    }
+
+    /**
+     * Find the typed tables that have not finished being populated, saves are written to both the json columns and
+     * these tables from now on so that no save is missed whilst the existing data is copied across
+     * <p>
+     * A typed table is only read from once its migration has been recorded as completed
+     */
+    private void prepareMigrations() {
+        Map<String, MigrationProgress> progress;
+        try {
+            progress = loadMigrationProgress();
+        } catch (SQLException e) {
+            LushRewards.getInstance().getLogger().log(Level.SEVERE, "Failed to load typed migration progress, user data will be stored as json: ", e);
+            return;
+        }
+
+        prepareMigration(USERS_TABLE, null, progress);
+
+        for (Module module : LushRewards.getInstance().getModules()) {
+            String moduleId = module.getId();
+            TypedTable table = findTable(moduleId);
+            if (table != null) {
+                prepareMigration(table, moduleId, progress);
+            }
+        }
+    }
+
+    private void prepareMigration(TypedTable table, @Nullable String moduleId, Map<String, MigrationProgress> progress) {
+        String migrationId = getMigrationId(table, moduleId);
+        MigrationProgress tableProgress = progress.get(migrationId);
+        if (tableProgress != null && tableProgress.completed()) {
+            migratedTables.add(migrationId);
+            return;
+        }
+
+        if (tableProgress != null) {
+            // Saves made since the interrupted migration were not written to the typed table, so it is copied again in full
+            LushRewards.getInstance().getLogger().info("Restarting interrupted migration of '" + (moduleId != null ? moduleId : "main") + "' data to the typed schema");
+        }
+
+        migratingTables.add(migrationId);
+        pendingMigrations.add(new Migration(table, moduleId, migrationId));
+    }
+
+    private void submitNextMigration(StorageExecutor executor) {
+        Migration migration = pendingMigrations.poll();
+        if (migration == null) {
+            return;
+        }
+
+        executor.submit(null, () -> {
+            try (Connection conn = storage.conn()) {
+                clearRows(conn, migration);
+            }
+
+            submitNextBatch(executor, migration, "", 0);
+            return null;
+        }).exceptionally(e -> {
+            failMigration(migration, e);
+            return null;
+        });
+    }
+
+    private void submitNextBatch(StorageExecutor executor, Migration migration, String lastUuid, int migrated) {
+        executor.submit(null, () -> {
+            try (Connection conn = storage.conn()) {
+                // Without a json column there is no existing data to copy
+                BatchResult result = storage.isKnownColumn(storage.getTable(migration.moduleId()), storage.getColumn(migration.moduleId()))
+                    ? copyBatch(conn, migration, lastUuid)
+                    : new BatchResult(0, 0, lastUuid);
+
+                int migratedTotal = migrated + result.copied();
+                if (result.read() == MIGRATION_BATCH_SIZE) {
+                    LushRewards.getInstance().getLogger().info("Migrated " + migratedTotal + " '" + migration.getName() + "' rows to the typed schema");
+                    submitNextBatch(executor, migration, result.lastUuid(), migratedTotal);
+                    return null;
+                }
+
+                try (PreparedStatement stmt = conn.prepareStatement(migrationUpsertStatement)) {
+                    setMigrationProgress(stmt, migration.migrationId(), null, true);
+                    stmt.execute();
+                }
+
+                // The table stays in the migrating set so that a save which has already chosen to write to both is not lost
+                migratedTables.add(migration.migrationId());
+                LushRewards.getInstance().getLogger().info("Finished migrating " + migratedTotal + " '" + migration.getName() + "' rows to the typed schema");
+            }
+
+            submitNextMigration(executor);
+            return null;
+        }).exceptionally(e -> {
+            failMigration(migration, e);
+            return null;
+        });
+    }
+
+    private void failMigration(Migration migration, Throwable e) {
+        LushRewards.getInstance().getLogger().log(Level.SEVERE, "Failed to migrate '" + migration.getName() + "' data to the typed schema, it will be stored as json and copied again on the next start: ", e);
+    }
+
+    private void clearRows(Connection conn, Migration migration) throws SQLException {
+        String statement = migration.table().perModule()
+            ? String.format("DELETE FROM `%s` WHERE module_id = ?;", migration.table().name())
+            : String.format("DELETE FROM `%s`;", migration.table().name());
+
+        try (PreparedStatement stmt = conn.prepareStatement(statement)) {
+            if (migration.table().perModule()) {
+                stmt.setString(1, migration.moduleId());
+            }
+
+            stmt.execute();
+        }
+    }
+
+    /**
+     * Copy the next batch of json rows, rows that already exist in the typed table were written by a save
+     * after the json was read and so are newer than the copy
+     */
+    private BatchResult copyBatch(Connection conn, Migration migration, String lastUuid) throws SQLException {
+        TypedTable table = migration.table();
+        String moduleId = migration.moduleId();
+        String sourceColumn = storage.getColumn(moduleId);
+
+        // Rows are paged by uuid so that reads and writes can share a single connection
+        String selectStatement = String.format("SELECT uuid, `%s` FROM `%s` WHERE `%s` IS NOT NULL AND uuid > ? ORDER BY uuid LIMIT %d;",
+            sourceColumn, storage.getTable(moduleId), sourceColumn, MIGRATION_BATCH_SIZE);
+
+        int read = 0;
+        Map<UUID, JsonObject> rows = new LinkedHashMap<>();
+        try (PreparedStatement stmt = conn.prepareStatement(selectStatement)) {
+            stmt.setString(1, lastUuid);
+
+            ResultSet resultSet = stmt.executeQuery();
+            while (resultSet.next()) {
+                read++;
+                lastUuid = resultSet.getString(1);
+
+                try {
+                    rows.put(UUID.fromString(lastUuid.trim()), JsonParser.parseString(resultSet.getString(2)).getAsJsonObject());
+                } catch (RuntimeException e) {
+                    LushRewards.getInstance().getLogger().warning("Skipped migrating invalid '" + migration.getName() + "' data for '" + lastUuid + "'");
+                }
+            }
+        }
+
+        if (read == 0) {
+            return new BatchResult(0, 0, lastUuid);
+        }
+
+        // The batch and the progress that includes it are committed together
+        conn.setAutoCommit(false);
+
+        try (PreparedStatement stmt = conn.prepareStatement(insertIfAbsentStatements.get(table));
+             PreparedStatement progressStmt = conn.prepareStatement(migrationUpsertStatement)
+        ) {
+            for (Map.Entry<UUID, JsonObject> row : rows.entrySet()) {
+                setRow(stmt, table, row.getKey(), moduleId, row.getValue());
+                stmt.addBatch();
+            }
+
+            if (!rows.isEmpty()) {
+                stmt.executeBatch();
+            }
+
+            setMigrationProgress(progressStmt, migration.migrationId(), lastUuid, false);
+            progressStmt.execute();
+            conn.commit();
+        } catch (SQLException e) {
+            conn.rollback();
+            throw e;
+        } finally {
+            conn.setAutoCommit(true);
+        }
+
+        return new BatchResult(read, rows.size(), lastUuid);
+    }
+
+    private Map<String, MigrationProgress> loadMigrationProgress() throws SQLException {
+        Map<String, MigrationProgress> progress = new HashMap<>();
+        try (Connection conn = storage.conn();
+             PreparedStatement stmt = conn.prepareStatement(String.format("SELECT id, last_uuid, completed FROM `%s`;", MIGRATIONS_TABLE_NAME))
+        ) {
+            ResultSet resultSet = stmt.executeQuery();
+            while (resultSet.next()) {
+                progress.put(resultSet.getString(1), new MigrationProgress(resultSet.getString(2), resultSet.getInt(3) != 0));
+            }
+        }
+
+        return progress;
+    }
+
+    private static void setMigrationProgress(PreparedStatement stmt, String migrationId, @Nullable String lastUuid, boolean completed) throws SQLException {
+        stmt.setString(1, migrationId);
+        if (lastUuid != null) {
+            stmt.setString(2, lastUuid);
+        } else {
+            stmt.setNull(2, Types.VARCHAR);
+        }
+        stmt.setInt(3, completed ? 1 : 0);
+    }
+
+    private static String getMigrationId(TypedTable table, @Nullable String moduleId) {
+        return table.perModule() ? table.name() + ":" + moduleId : table.name();
+    }
+
+    public enum ColumnType {
+        INTEGER,
+        STRING,
+        DATE,
+        DAYS
+    }
+
+    public record TypedColumn(String name, String field, ColumnType type) {}
+
+    public record TypedIndex(String name, String columns) {}
+
+    private record MigrationProgress(@Nullable String lastUuid, boolean completed) {}
+
+    private record Migration(TypedTable table, @Nullable String moduleId, String migrationId) {
+
+        public String getName() {
+            return moduleId != null ? moduleId : "main";
+        }
+    }
+
+    private record BatchResult(int read, int copied, String lastUuid) {}
+
+    public record TypedTable(String name, boolean perModule, List<TypedColumn> columns, List<TypedIndex> indexes) {
+
+        public List<String> getKeyColumns() {
+            return perModule ? List.of("uuid", "module_id") : List.of("uuid");
+        }
+    }
+}
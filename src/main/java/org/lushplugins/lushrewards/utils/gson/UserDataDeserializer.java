@@ -0,0 +1,35 @@
+package org.lushplugins.lushrewards.utils.gson;
+
+import com.google.gson.*;
+import org.lushplugins.lushrewards.module.UserDataModule;
+
+import java.lang.reflect.Type;
+import java.util.UUID;
+
+/**
+ * Creates module user data from its json, the json must include the data's uuid and module id
+ */
+public class UserDataDeserializer<T extends UserDataModule.UserData> implements JsonDeserializer<T> {
+    private final Factory<T> factory;
+
+    public UserDataDeserializer(Factory<T> factory) {
+        this.factory = factory;
+    }
+
+    @Override
+    public T deserialize(JsonElement json, Type typeOfT, JsonDeserializationContext context) throws JsonParseException {
+        JsonObject jsonObject = json.getAsJsonObject();
+        if (!jsonObject.has("uuid")) {
+            throw new JsonParseException("Missing uuid in user data: " + json);
+        }
+
+        UUID uuid = UUID.fromString(jsonObject.get("uuid").getAsString());
+        JsonElement moduleId = jsonObject.get("moduleId");
+        return factory.create(uuid, moduleId != null && !moduleId.isJsonNull() ? moduleId.getAsString() : null, jsonObject);
+    }
+
+    @FunctionalInterface
+    public interface Factory<T> {
+        T create(UUID uuid, String moduleId, JsonObject json);
+    }
+}